@@ -1,44 +1,62 @@
 package simpledb.buffer;
 
 import simpledb.file.*;
+import java.util.*;
 
 /**
- * Manages the pinning and unpinning of buffers to blocks.
+ * Manages the pinning and unpinning of buffers to blocks,
+ * for one shard of the buffer pool.
+ * The manager keeps a table that maps each block in the pool
+ * to its buffer, so that a hit is found in constant time.
+ * On a miss, the buffer to be replaced is chosen by a
+ * {@link ReplacementPolicy replacement policy},
+ * which is selected by name when the manager is created.
+ * The manager counts its pins and hits, so that
+ * the policies can be compared by their hit ratios.
+ * <p>
+ * The set of buffers that the manager owns can change:
+ * an unpinned buffer can be {@link #surrender() surrendered}
+ * to another shard, which {@link #adopt(Buffer) adopts} it.
+ * A buffer can also be {@link #retire(Buffer) retired},
+ * when the pool shrinks; a pinned buffer is then removed
+ * as soon as it is unpinned.
  * @author Edward Sciore
  *
  */
 class BasicBufferMgr {
-   private Buffer[] bufferpool;
+   private Set<Buffer> bufferpool = new HashSet<Buffer>();
+   private Map<Block,Buffer> bufferTable = new HashMap<Block,Buffer>();
+   private Set<Buffer> retiring = new HashSet<Buffer>();
+   private ReplacementPolicy policy;
    private int numAvailable;
+   private long numPins = 0, numHits = 0, numDirtyVictims = 0;
+   private PageCleaner cleaner = null;
    
    /**
-    * Creates a buffer manager having the specified number 
-    * of buffer slots.
-    * This constructor depends on both the {@link FileMgr} and
-    * {@link simpledb.log.LogMgr LogMgr} objects 
-    * that it gets from the class
-    * {@link simpledb.server.SimpleDB}.
-    * Those objects are created during system initialization.
-    * Thus this constructor cannot be called until 
-    * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
-    * is called first.
-    * @param numbuffs the number of buffer slots to allocate
+    * Creates a buffer manager that owns the specified buffers,
+    * none of which are assigned to a block.
+    * @param buffs the buffers
+    * @param policyname the name of the replacement policy
     */
-   BasicBufferMgr(int numbuffs) {
-      bufferpool = new Buffer[numbuffs];
-      numAvailable = numbuffs;
-      for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer();
+   BasicBufferMgr(Buffer[] buffs, String policyname) {
+      policy = createPolicy(policyname);
+      for (Buffer buff : buffs)
+         adopt(buff);
    }
    
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
-    * @param txnum the transaction's id number
+    * Writes the specified buffer to disk if it is dirty,
+    * provided that the manager owns it.
+    * The buffer cannot be reassigned while it is written,
+    * since reassignment also holds the manager's lock.
+    * @param buff the buffer
+    * @return false if the manager does not own the buffer
     */
-   synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
-         if (buff.isModifiedBy(txnum))
-         buff.flush();
+   synchronized boolean flush(Buffer buff) {
+      if (!bufferpool.contains(buff))
+         return false;
+      buff.flush();
+      return true;
    }
    
    /**
@@ -52,18 +70,55 @@ class BasicBufferMgr {
     */
    synchronized Buffer pin(Block blk) {
       Buffer buff = findExistingBuffer(blk);
-      if (buff == null) {
+      if (buff != null)
+         numHits++;
+      else {
          buff = chooseUnpinnedBuffer();
          if (buff == null)
             return null;
+         if (buff.isModified())
+            dirtyVictim();
+         Block oldblk = unmap(buff);
          buff.assignToBlock(blk);
+         bufferTable.put(blk, buff);
+         policy.assigned(buff, oldblk);
       }
+      numPins++;
       if (!buff.isPinned())
          numAvailable--;
       buff.pin();
+      policy.pinned(buff);
       return buff;
    }
    
+   /**
+    * Adopts the specified buffer, and then
+    * pins a buffer to the specified block.
+    * The pin cannot fail, because the adopted buffer is unpinned.
+    * @param blk a reference to a disk block
+    * @param spare an unpinned buffer from another shard
+    * @return the pinned buffer
+    */
+   synchronized Buffer pin(Block blk, Buffer spare) {
+      adopt(spare);
+      return pin(blk);
+   }
+   
+   /**
+    * Pins a buffer to the specified block on behalf of a client
+    * that has reserved buffers.
+    * If the block is not in the pool, then a spare buffer
+    * of the reservation is adopted first, so the pin cannot fail.
+    * @param blk a reference to a disk block
+    * @param res the client's reservation, which holds a spare buffer
+    * @return the pinned buffer
+    */
+   synchronized Buffer pin(Block blk, BufferReservation res) {
+      if (!bufferTable.containsKey(blk))
+         adopt(res.take());
+      return pin(blk);
+   }
+   
    /**
     * Allocates a new block in the specified file, and
     * pins a buffer to it. 
@@ -77,20 +132,253 @@ class BasicBufferMgr {
       Buffer buff = chooseUnpinnedBuffer();
       if (buff == null)
          return null;
+      if (buff.isModified())
+         dirtyVictim();
+      Block oldblk = unmap(buff);
       buff.assignToNew(filename, fmtr);
+      bufferTable.put(buff.block(), buff);
+      policy.assigned(buff, oldblk);
       numAvailable--;
       buff.pin();
+      policy.pinned(buff);
       return buff;
    }
    
+   /**
+    * Adopts the specified buffer, and then
+    * pins a buffer to a new block of the specified file.
+    * The pin cannot fail, because the adopted buffer is unpinned.
+    * @param filename the name of the file
+    * @param fmtr a pageformatter object, used to format the new block
+    * @param spare an unpinned buffer from another shard
+    * @return the pinned buffer
+    */
+   synchronized Buffer pinNew(String filename, PageFormatter fmtr, Buffer spare) {
+      adopt(spare);
+      return pinNew(filename, fmtr);
+   }
+   
+   /**
+    * Starts reading the specified blocks into unpinned buffers,
+    * without pinning them.
+    * Blocks that are already in a buffer are skipped.
+    * Each run of consecutive blocks of the same file
+    * is read by a single vectored read.
+    * The buffers are the ones that the replacement policy would
+    * choose next, and at most half of the unpinned buffers
+    * are used, so that prefetching cannot flush the pool.
+    * Prefetching stops at the first chosen buffer that is dirty,
+    * so that it never writes a page;
+    * the remaining blocks are not prefetched.
+    * @param blks references to the disk blocks
+    */
+   synchronized void prefetch(Block[] blks) {
+      int limit = numAvailable / 2;
+      Set<Buffer> used = new LinkedHashSet<Buffer>();
+      List<Block> toread = new ArrayList<Block>();
+      for (Block blk : blks) {
+         if (findExistingBuffer(blk) != null || toread.contains(blk))
+            continue;
+         Buffer buff = (used.size() < limit) ? policy.chooseVictim(used) : null;
+         if (buff == null || buff.isModified())
+            break;
+         toread.add(blk);
+         used.add(buff);
+      }
+      readRuns(toread, new ArrayList<Buffer>(used));
+   }
+   
+   /**
+    * Starts reading the specified blocks into buffers
+    * that hold no block, without pinning them.
+    * Unlike prefetching, warming never replaces a block,
+    * and so it cannot evict the pages that clients are using;
+    * it only fills the buffers that have not been used
+    * since they were added to the pool.
+    * Blocks that are already in a buffer are skipped,
+    * and once no empty buffer is left,
+    * the remaining blocks are not read.
+    * Each run of consecutive blocks of the same file
+    * is read by a single vectored read.
+    * @param blks references to the disk blocks
+    * @return the buffers whose blocks are being read
+    */
+   synchronized List<Buffer> warm(Block[] blks) {
+      List<Buffer> empty = emptyBuffers(blks.length);
+      List<Block> toread = new ArrayList<Block>();
+      for (Block blk : blks) {
+         if (toread.size() >= empty.size())
+            break;
+         if (findExistingBuffer(blk) == null && !toread.contains(blk))
+            toread.add(blk);
+      }
+      List<Buffer> used = empty.subList(0, toread.size());
+      readRuns(toread, used);
+      return new ArrayList<Buffer>(used);
+   }
+   
    /**
     * Unpins the specified buffer.
     * @param buff the buffer to be unpinned
+    * @return true if the buffer is no longer pinned
     */
-   synchronized void unpin(Buffer buff) {
+   synchronized boolean unpin(Buffer buff) {
       buff.unpin();
-      if (!buff.isPinned())
-         numAvailable++;
+      if (buff.isPinned())
+         return false;
+      numAvailable++;
+      policy.unpinned(buff);
+      if (retiring.remove(buff)) {
+         remove(buff);
+         notifyAll();
+         return false;
+      }
+      return true;
+   }
+   
+   /**
+    * Removes an unpinned buffer from the manager,
+    * so that another shard can adopt it.
+    * The buffer is chosen by the replacement policy,
+    * and is written to disk if it is dirty, so that
+    * its block can be safely read again by this manager.
+    * Returns null if every buffer is pinned.
+    * @return the removed buffer, or null
+    */
+   synchronized Buffer surrender() {
+      Buffer buff = chooseUnpinnedBuffer();
+      if (buff == null)
+         return null;
+      remove(buff);
+      return buff;
+   }
+   
+   /**
+    * Removes the specified buffer from the manager,
+    * so that the pool can shrink.
+    * An unpinned buffer is removed immediately,
+    * after being written to disk if it is dirty.
+    * A pinned buffer is marked for removal,
+    * and is removed when it is next unpinned;
+    * see {@link #awaitRetired(Buffer, long)}.
+    * Returns false if the manager does not own the buffer.
+    * @param buff the buffer
+    * @return true if the buffer was removed or marked for removal
+    */
+   synchronized boolean retire(Buffer buff) {
+      if (!bufferpool.contains(buff))
+         return false;
+      if (buff.isPinned())
+         retiring.add(buff);
+      else
+         remove(buff);
+      return true;
+   }
+   
+   /**
+    * Waits until the specified buffer, which was retired
+    * while it was pinned, has been removed.
+    * If the time is up first, the buffer is no longer
+    * marked for removal, and stays in the manager.
+    * @param buff the retired buffer
+    * @param deadline the time at which to give up, in milliseconds
+    * @return true if the buffer was removed
+    */
+   synchronized boolean awaitRetired(Buffer buff, long deadline) throws InterruptedException {
+      try {
+         while (retiring.contains(buff)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+               return false;
+            wait(remaining);
+         }
+         return true;
+      }
+      finally {
+         retiring.remove(buff);
+      }
+   }
+   
+   /**
+    * Pins the dirty buffers among those that are
+    * about to be replaced, so that the page cleaner can
+    * write them without their being reassigned.
+    * The method looks at as many of the next victims of the
+    * replacement policy as the specified fraction of the
+    * unpinned buffers.
+    * The pins are not counted as pins by the statistics,
+    * and are not reported to the policy;
+    * the cleaner releases them by unpinning the buffers.
+    * @param fraction the fraction of unpinned buffers to keep clean
+    * @param max the maximum number of buffers to pin
+    * @return the pinned dirty buffers
+    */
+   synchronized List<Buffer> pinDirtyVictims(double fraction, int max) {
+      List<Buffer> dirty = new ArrayList<Buffer>();
+      int lookahead = (int) Math.ceil(fraction * numAvailable);
+      for (Buffer buff : policy.nextVictims(lookahead)) {
+         if (dirty.size() >= max)
+            break;
+         if (buff.isModified()) {
+            buff.pin();
+            numAvailable--;
+            dirty.add(buff);
+         }
+      }
+      return dirty;
+   }
+   
+   /**
+    * Returns true if the specified block is in one of
+    * the manager's buffers.
+    * @param blk a reference to a disk block
+    * @return true if the block is in the pool
+    */
+   synchronized boolean contains(Block blk) {
+      return bufferTable.containsKey(blk);
+   }
+   
+   /**
+    * Returns the blocks that are in the manager's buffers.
+    * @return a copy of the blocks in the pool
+    */
+   synchronized List<Block> blocks() {
+      return new ArrayList<Block>(bufferTable.keySet());
+   }
+   
+   /**
+    * Demotes the buffer of the specified block,
+    * so that it will be replaced soon.
+    * Nothing happens if the block is not in the pool
+    * or its buffer is pinned.
+    * @param blk a reference to a disk block
+    */
+   synchronized void demote(Block blk) {
+      Buffer buff = bufferTable.get(blk);
+      if (buff != null && !buff.isPinned())
+         policy.demote(buff);
+   }
+   
+   /**
+    * Sets the page cleaner to be woken when a pin
+    * has to write the buffer that it replaces.
+    * @param cleaner the cleaner, or null if there is none
+    */
+   synchronized void setCleaner(PageCleaner cleaner) {
+      this.cleaner = cleaner;
+   }
+   
+   /**
+    * Adds an unpinned buffer to the manager.
+    * The buffer's current block, if any, is not entered
+    * in the manager's table, and so the buffer will be
+    * reassigned before it is used.
+    * @param buff the buffer
+    */
+   synchronized void adopt(Buffer buff) {
+      bufferpool.add(buff);
+      policy.add(buff);
+      numAvailable++;
    }
    
    /**
@@ -101,19 +389,150 @@ class BasicBufferMgr {
       return numAvailable;
    }
    
+   /**
+    * Returns the number of successful pins since the manager
+    * was created or its statistics were last reset.
+    * @return the number of pins
+    */
+   synchronized long pinCount() {
+      return numPins;
+   }
+   
+   /**
+    * Returns the number of those pins whose block
+    * was already in the pool.
+    * @return the number of hits
+    */
+   synchronized long hitCount() {
+      return numHits;
+   }
+   
+   /**
+    * Returns the number of times that a pin or pinNew
+    * had to write the buffer that it replaced.
+    * @return the number of dirty victims
+    */
+   synchronized long dirtyVictimCount() {
+      return numDirtyVictims;
+   }
+   
+   /**
+    * Resets the pin, hit and dirty-victim counts to zero.
+    */
+   synchronized void resetStatistics() {
+      numPins = 0;
+      numHits = 0;
+      numDirtyVictims = 0;
+   }
+   
+   private ReplacementPolicy createPolicy(String policyname) {
+      if (policyname.equals(ReplacementPolicy.LRU))
+         return new LRUPolicy();
+      else if (policyname.equals(ReplacementPolicy.CLOCK))
+         return new ClockPolicy();
+      else if (policyname.equals(ReplacementPolicy.LRU_K))
+         return new LRUKPolicy();
+      else if (policyname.equals(ReplacementPolicy.TWO_Q))
+         return new TwoQPolicy();
+      else
+         throw new RuntimeException("unknown replacement policy: " + policyname);
+   }
+   
+   /**
+    * Removes an unpinned buffer from the manager,
+    * writing it to disk if it is dirty, so that
+    * its block can be safely read again.
+    */
+   private void remove(Buffer buff) {
+      unmap(buff);
+      buff.flush();
+      policy.remove(buff);
+      bufferpool.remove(buff);
+      numAvailable--;
+   }
+   
    private Buffer findExistingBuffer(Block blk) {
+      return bufferTable.get(blk);
+   }
+   
+   private void dirtyVictim() {
+      numDirtyVictims++;
+      if (cleaner != null)
+         cleaner.wakeup();
+   }
+   
+   /**
+    * Removes the buffer's block from the table,
+    * and returns the block.
+    * Returns null if the buffer's block is not in the table,
+    * which is the case for a buffer that has not been assigned
+    * since it was adopted.
+    */
+   private Block unmap(Buffer buff) {
+      Block b = buff.block();
+      if (b == null || bufferTable.get(b) != buff)
+         return null;
+      bufferTable.remove(b);
+      return b;
+   }
+   
+   /**
+    * Returns up to the specified number of unpinned,
+    * clean buffers whose block is not in the table.
+    */
+   private List<Buffer> emptyBuffers(int max) {
+      List<Buffer> empty = new ArrayList<Buffer>();
       for (Buffer buff : bufferpool) {
+         if (empty.size() >= max)
+            break;
          Block b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
+         boolean mapped = (b != null && bufferTable.get(b) == buff);
+         if (!mapped && !buff.isPinned() && !buff.isModified())
+            empty.add(buff);
+      }
+      return empty;
+   }
+   
+   /**
+    * Starts reading each block into the corresponding buffer,
+    * reading each run of consecutive blocks of the same file
+    * with a single vectored read.
+    */
+   private void readRuns(List<Block> blks, List<Buffer> buffs) {
+      List<Buffer> run = new ArrayList<Buffer>();
+      Block runstart = null;
+      for (int i=0; i<blks.size(); i++) {
+         Block blk = blks.get(i);
+         if (!run.isEmpty() && !follows(blk, runstart, run.size())) {
+            readRun(run, runstart);
+            run.clear();
+         }
+         if (run.isEmpty())
+            runstart = blk;
+         run.add(buffs.get(i));
+      }
+      if (!run.isEmpty())
+         readRun(run, runstart);
+   }
+   
+   private boolean follows(Block blk, Block runstart, int runsize) {
+      return blk.fileName().equals(runstart.fileName())
+            && blk.number() == runstart.number() + runsize;
+   }
+   
+   private void readRun(List<Buffer> run, Block runstart) {
+      Buffer[] buffs = run.toArray(new Buffer[run.size()]);
+      Block[] oldblks = new Block[buffs.length];
+      for (int i=0; i<buffs.length; i++)
+         oldblks[i] = unmap(buffs[i]);
+      Buffer.assignToBlocks(buffs, runstart.fileName(), runstart.number());
+      for (int i=0; i<buffs.length; i++) {
+         bufferTable.put(buffs[i].block(), buffs[i]);
+         policy.assigned(buffs[i], oldblks[i]);
       }
-      return null;
    }
    
    private Buffer chooseUnpinnedBuffer() {
-      for (Buffer buff : bufferpool)
-         if (!buff.isPinned())
-         return buff;
-      return null;
+      return policy.chooseVictim(Collections.<Buffer>emptySet());
    }
 }
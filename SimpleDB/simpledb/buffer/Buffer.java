@@ -2,6 +2,8 @@ package simpledb.buffer;
 
 import simpledb.server.SimpleDB;
 import simpledb.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An individual buffer.
@@ -11,20 +13,48 @@ import simpledb.file.*;
  * whether the contents of the page have been modified,
  * and if so, the id of the modifying transaction and
  * the LSN of the corresponding log record.
+ * <p>
+ * When a buffer is assigned to a block, the block is read
+ * asynchronously; the buffer remembers the pending read,
+ * and {@link #waitForRead()} waits for it to complete.
+ * <p>
+ * The buffer's page is protected by a {@link Latch}.
+ * The methods that get and set values do not take the latch;
+ * instead, the caller holds it, in shared mode to get values
+ * and in exclusive mode to set them, for the duration of an
+ * operation such as reading a record or shifting index entries.
+ * The latch is therefore taken once per operation,
+ * rather than once per value.
+ * Writing the page to disk holds the latch in shared mode
+ * only long enough to copy the page,
+ * so that the disk never sees a partially-set value
+ * and writers are not kept waiting for the disk.
+ * <p>
+ * A buffer of the pool reports the changes of its dirty state
+ * to the pool's {@link DirtyPageTable dirty page table}.
  * @author Edward Sciore
  */
 public class Buffer {
-   private Page contents = new Page();
+   private Page contents;
    private Block blk = null;
    private int pins = 0;
    private int modifiedBy = -1;  // negative means not modified
-   private int logSequenceNumber = -1; // negative means no corresponding log record
+   private long logSequenceNumber = -1; // negative means no corresponding log record
+   private long recoveryLSN = -1; // the first LSN since the page was last clean
+   private DirtyPageTable dirtyPages = null;
+   private volatile Future<?> pendingRead = null;
+   private Latch latch = new Latch();
+   private long modifications = 0;
+   private Object flushLock = new Object();
+   private final long id = nextId.getAndIncrement();
+   private static AtomicLong nextId = new AtomicLong(0);
+   private static ThreadLocal<Page> flushPage = new ThreadLocal<Page>();
 
    /**
     * Creates a new buffer, wrapping a new 
     * {@link simpledb.file.Page page}.  
-    * This constructor is called exclusively by the 
-    * class {@link BasicBufferMgr}.   
+    * The buffer manager does not use this constructor;
+    * it builds its buffers from pages that it allocates together.
     * It depends on  the 
     * {@link simpledb.log.LogMgr LogMgr} object 
     * that it gets from the class
@@ -34,13 +64,73 @@ public class Buffer {
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
     */
-   public Buffer() {}
+   public Buffer() {
+      this(new Page(), null);
+   }
+   
+   /**
+    * Creates a new buffer that wraps the specified page.
+    * The buffer manager uses this constructor to build its pool
+    * from pages that share a few large allocations.
+    * @param contents the page
+    * @param dirtyPages the pool's dirty page table
+    */
+   Buffer(Page contents, DirtyPageTable dirtyPages) {
+      this.contents = contents;
+      this.dirtyPages = dirtyPages;
+   }
+   
+   /**
+    * Acquires the buffer's latch in shared mode,
+    * which allows the caller to get values from the page.
+    * The latch is not reentrant.
+    */
+   public void sLatch() {
+      latch.sLatch();
+   }
+   
+   /**
+    * Releases a shared hold on the buffer's latch.
+    */
+   public void sUnlatch() {
+      latch.sUnlatch();
+   }
+   
+   /**
+    * Acquires the buffer's latch in exclusive mode,
+    * which allows the caller to get and set values of the page.
+    * The latch is not reentrant.
+    */
+   public void xLatch() {
+      latch.xLatch();
+   }
+   
+   /**
+    * Releases an exclusive hold on the buffer's latch.
+    */
+   public void xUnlatch() {
+      latch.xUnlatch();
+   }
+   
+   /**
+    * Returns true if the latch of this buffer must be acquired
+    * before the latch of the specified buffer,
+    * when a thread needs to hold both.
+    * Acquiring latches in this fixed order ensures that two
+    * such threads cannot wait for each other.
+    * @param other the other buffer
+    * @return true if this buffer's latch is acquired first
+    */
+   public boolean latchesBefore(Buffer other) {
+      return id < other.id;
+   }
    
    /**
     * Returns the integer value at the specified offset of the
     * buffer's page.
     * If an integer was not stored at that location,
     * the behavior of the method is unpredictable.
+    * The caller must hold the latch.
     * @param offset the byte offset of the page
     * @return the integer value at that offset
     */
@@ -53,6 +143,7 @@ public class Buffer {
     * buffer's page.
     * If a string was not stored at that location,
     * the behavior of the method is unpredictable.
+    * The caller must hold the latch.
     * @param offset the byte offset of the page
     * @return the string value at that offset
     */
@@ -60,6 +151,48 @@ public class Buffer {
       return contents.getString(offset);
    }
 
+   /**
+    * Compares the string at the specified offset of the
+    * buffer's page with an encoded key, without decoding the string.
+    * The caller must hold the latch.
+    * @param offset the byte offset of the page
+    * @param key the key, as encoded by {@link Page#encode(String)}
+    * @return a negative value, zero, or a positive value
+    * as the string is less than, equal to, or greater than the key
+    * @see Page#compareString(int, byte[])
+    */
+   public int compareString(int offset, byte[] key) {
+      return contents.compareString(offset, key);
+   }
+
+   /**
+    * Compares the string at the specified offset of the
+    * buffer's page with the string at the specified offset
+    * of another buffer's page, without decoding either string.
+    * The caller must hold the latches of both buffers.
+    * @param offset the byte offset of this buffer's page
+    * @param other the other buffer
+    * @param otheroffset the byte offset of the other buffer's page
+    * @return a negative value, zero, or a positive value
+    * as the string in this buffer is less than, equal to,
+    * or greater than the string in the other buffer
+    */
+   public int compareString(int offset, Buffer other, int otheroffset) {
+      return contents.compareString(offset, other.contents, otheroffset);
+   }
+
+   /**
+    * Returns true if the string at the specified offset of the
+    * buffer's page equals an encoded key.
+    * The caller must hold the latch.
+    * @param offset the byte offset of the page
+    * @param key the key, as encoded by {@link Page#encode(String)}
+    * @return true if the string equals the key
+    */
+   public boolean equalsString(int offset, byte[] key) {
+      return contents.equalsString(offset, key);
+   }
+
    /**
     * Writes an integer to the specified offset of the
     * buffer's page.
@@ -69,15 +202,14 @@ public class Buffer {
     * and the LSN of the log record.
     * A negative lsn value indicates that a log record
     * was not necessary.
+    * The caller must hold the latch in exclusive mode.
     * @param offset the byte offset within the page
     * @param val the new integer value to be written
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setInt(int offset, int val, int txnum, int lsn) {
-      modifiedBy = txnum;
-      if (lsn >= 0)
-	      logSequenceNumber = lsn;
+   public void setInt(int offset, int val, int txnum, long lsn) {
+      modified(txnum, lsn);
       contents.setInt(offset, val);
    }
 
@@ -90,15 +222,14 @@ public class Buffer {
     * was not necessary.
     * The buffer saves the id of the transaction
     * and the LSN of the log record.
+    * The caller must hold the latch in exclusive mode.
     * @param offset the byte offset within the page
     * @param val the new string value to be written
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setString(int offset, String val, int txnum, int lsn) {
-      modifiedBy = txnum;
-      if (lsn >= 0)
-	      logSequenceNumber = lsn;
+   public void setString(int offset, String val, int txnum, long lsn) {
+      modified(txnum, lsn);
       contents.setString(offset, val);
    }
 
@@ -117,14 +248,70 @@ public class Buffer {
     * The method ensures that the corresponding log
     * record has been written to disk prior to writing
     * the page to disk.
+    * The page is copied while the latch is held,
+    * and the copy is written after the latch is released,
+    * so that the page can be modified during the log flush
+    * and the disk write.
+    * The buffer becomes clean only if the page was not
+    * modified after it was copied.
+    * Flushes of the same buffer are serialized, so that
+    * an older copy of the page cannot overwrite a newer one.
+    * Each thread keeps a page for its copies, which is replaced
+    * when it belongs to a different file manager than the buffer's
+    * page, as it does after the system is initialized again,
+    * so that the copy has the right size and is written
+    * to the right database.
     */
    void flush() {
-      if (modifiedBy >= 0) {
-         SimpleDB.logMgr().flush(logSequenceNumber);
-         contents.write(blk);
-         modifiedBy = -1;
+      if (modifiedBy < 0)
+         return;
+      synchronized (flushLock) {
+         Page copy = flushPage.get();
+         if (copy == null || !copy.sameFileMgr(contents)) {
+            copy = contents.newPage();
+            flushPage.set(copy);
+         }
+         int txnum;
+         long lsn, version;
+         latch.sLatch();
+         try {
+            txnum = modifiedBy;
+            lsn = logSequenceNumber;
+            version = modifications;
+            if (txnum >= 0)
+               copy.copyFrom(contents);
+         }
+         finally {
+            latch.sUnlatch();
+         }
+         if (txnum < 0)
+            return;
+         SimpleDB.logMgr().flush(lsn);
+         copy.write(blk);
+         latch.xLatch();
+         try {
+            if (modifications == version) {
+               modifiedBy = -1;
+               recoveryLSN = -1;
+               if (dirtyPages != null)
+                  dirtyPages.flushed(this, txnum);
+            }
+         }
+         finally {
+            latch.xUnlatch();
+         }
       }
    }
+   
+   /**
+    * Returns the LSN of the most recent log record
+    * for a modification of the page,
+    * or a negative value if there is none.
+    * @return the page's LSN
+    */
+   long logSequenceNumber() {
+      return logSequenceNumber;
+   }
 
    /**
     * Increases the buffer's pin count.
@@ -149,6 +336,34 @@ public class Buffer {
       return pins > 0;
    }
 
+   /**
+    * Returns true if the buffer is dirty.
+    * @return true if the buffer has been modified
+    */
+   boolean isModified() {
+      return modifiedBy >= 0;
+   }
+
+   /**
+    * Waits until the contents of the buffer's block
+    * have been read into the buffer's page.
+    * The method returns immediately if there is no pending read.
+    */
+   void waitForRead() {
+      Future<?> read = pendingRead;
+      if (read == null)
+         return;
+      try {
+         read.get();
+      }
+      catch (InterruptedException e) {
+         throw new BufferAbortException();
+      }
+      catch (ExecutionException e) {
+         throw new RuntimeException("cannot read block " + blk);
+      }
+   }
+
    /**
     * Returns true if the buffer is dirty
     * due to a modification by the specified transaction.
@@ -160,19 +375,45 @@ public class Buffer {
    }
 
    /**
-    * Reads the contents of the specified block into
-    * the buffer's page.
+    * Starts reading the contents of the specified block into
+    * the buffer's page, without waiting for the read to complete.
     * If the buffer was dirty, then the contents
     * of the previous page are first written to disk.
     * @param b a reference to the data block
     */
    void assignToBlock(Block b) {
+      discardPendingRead();
       flush();
       blk = b;
-      contents.read(blk);
+      pendingRead = contents.readAsync(blk);
       pins = 0;
    }
 
+   /**
+    * Starts reading consecutive blocks of a file into the
+    * pages of the specified buffers, one block per buffer,
+    * using a single vectored read.
+    * If a buffer was dirty, then the contents
+    * of its previous page are first written to disk.
+    * @param buffs the buffers
+    * @param filename the name of the file
+    * @param start the number of the block read into the first buffer
+    */
+   static void assignToBlocks(Buffer[] buffs, String filename, int start) {
+      Page[] pages = new Page[buffs.length];
+      for (int i=0; i<buffs.length; i++) {
+         Buffer buff = buffs[i];
+         buff.discardPendingRead();
+         buff.flush();
+         buff.blk = new Block(filename, start + i);
+         buff.pins = 0;
+         pages[i] = buff.contents;
+      }
+      Future<?> read = Page.readAsync(filename, start, pages);
+      for (Buffer buff : buffs)
+         buff.pendingRead = read;
+   }
+
    /**
     * Initializes the buffer's page according to the specified formatter,
     * and appends the page to the specified file.
@@ -182,9 +423,50 @@ public class Buffer {
     * @param fmtr a page formatter, used to initialize the page
     */
    void assignToNew(String filename, PageFormatter fmtr) {
+      discardPendingRead();
       flush();
       fmtr.format(contents);
       blk = contents.append(filename);
       pins = 0;
    }
-}
\ No newline at end of file
+
+   /**
+    * Records a modification of the page by the specified
+    * transaction, whose log record has the specified LSN.
+    * The dirty page table is told only when the modification
+    * changes the buffer's transaction or recovery LSN.
+    * The caller must hold the latch in exclusive mode.
+    */
+   private void modified(int txnum, long lsn) {
+      int oldtx = modifiedBy;
+      modifications++;
+      boolean firstlsn = (lsn >= 0 && recoveryLSN < 0);
+      modifiedBy = txnum;
+      if (lsn >= 0)
+         logSequenceNumber = lsn;
+      if (firstlsn)
+         recoveryLSN = lsn;
+      if (dirtyPages != null && (oldtx != txnum || firstlsn))
+         dirtyPages.modified(this, oldtx, txnum, recoveryLSN);
+   }
+   
+   /**
+    * Waits for any pending read to complete, so that the page
+    * can be reused.
+    * A failed read is ignored, because the page
+    * is about to be overwritten.
+    */
+   private void discardPendingRead() {
+      Future<?> read = pendingRead;
+      pendingRead = null;
+      if (read == null)
+         return;
+      try {
+         read.get();
+      }
+      catch (InterruptedException e) {
+         throw new BufferAbortException();
+      }
+      catch (ExecutionException e) {}
+   }
+}
@@ -1,26 +1,143 @@
 package simpledb.buffer;
 
+import simpledb.server.SimpleDB;
 import simpledb.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The publicly-accessible buffer manager.
- * A buffer manager wraps a basic buffer manager, and
+ * A buffer manager wraps a set of basic buffer managers, and
  * provides the same methods. The difference is that
  * the methods {@link #pin(Block) pin} and 
  * {@link #pinNew(String, PageFormatter) pinNew}
  * will never return null.
  * If no buffers are currently available, then the
- * calling thread will be placed on a waiting list.
- * The waiting threads are removed from the list when 
- * a buffer becomes available.
+ * calling thread will be placed at the end of a FIFO waiting list.
+ * When a buffer becomes unpinned while threads are waiting,
+ * its shard gives up a buffer, which is handed directly
+ * to the thread at the head of the list;
+ * only that thread is woken, and no other thread can take
+ * the buffer from it.
  * If a thread has been waiting for a buffer for an
- * excessive amount of time (currently, 10 seconds)
+ * excessive amount of time (by default, 10 seconds;
+ * see {@link #setMaxWaitTime(long)}),
  * then a {@link BufferAbortException} is thrown.
+ * The manager records how long threads wait for buffers.
+ * <p>
+ * The pool is partitioned into shards, each of which is
+ * a basic buffer manager with its own buffers, block table,
+ * replacement state and lock.
+ * A block belongs to the shard given by a hash of its
+ * filename and block number, so that pins of different blocks
+ * rarely contend for the same lock.
+ * Consecutive blocks belong to the same shard in groups of
+ * {@link #SHARD_RUN_BLOCKS}, so that a prefetched run
+ * can still be read by a single vectored read.
+ * When a shard has no unpinned buffer, it takes one from
+ * another shard; the buffer manager's own monitor
+ * guards only the waiting list.
+ * <p>
+ * Blocks are read asynchronously.
+ * A shard's lock is held only while a buffer
+ * is chosen for a block; the pinning thread then waits
+ * for the block's read outside of the lock,
+ * so that other pins can proceed in the meantime.
+ * Method {@link #prefetch(Block...) prefetch} lets clients
+ * start reading blocks before they need them.
+ * In addition, the manager detects sequential pins of a file,
+ * such as those of a table scan, and reads the next blocks
+ * of the file ahead of them; see {@link #setReadAhead(int)}.
+ * A large scan can be confined to a small {@link BufferRing ring}
+ * of buffers, by passing the ring to its pins.
+ * A multibuffer operator can {@link #reserve(BufferReservation, int) reserve}
+ * the buffers that it needs, so that other transactions
+ * cannot take them between its planning and its pins.
+ * <p>
+ * The buffer to replace on a miss is chosen by the replacement
+ * policy named when the manager is created:
+ * "lru", "clock", "lru-k" (LRU-2) or "2q".
+ * The manager counts its pins and hits,
+ * so that the policies can be compared.
+ * <p>
+ * A {@link PageCleaner page cleaner} can be started,
+ * to write dirty buffers in the background before they are replaced.
+ * After a restart, a {@link BufferWarmer warm-up} can read back
+ * the blocks that were {@link #residentBlocks() resident} before,
+ * without replacing the blocks that clients read in the meantime.
+ * <p>
+ * The pool can be {@link #resize(int) resized} while it is in use.
+ * Its pages are allocated in extents of at most
+ * {@link #EXTENT_BUFFERS} pages, and the pool shrinks by
+ * removing the most recently allocated buffers first,
+ * so that the memory of whole extents can be reclaimed.
  * @author Edward Sciore
  */
 public class BufferMgr {
-   private static final long MAX_TIME = 10000; // 10 seconds
-   private BasicBufferMgr bufferMgr;
+   /**
+    * The default time that a thread waits for a buffer,
+    * in milliseconds.
+    */
+   public static final long DEFAULT_MAX_TIME = 10000; // 10 seconds
+   
+   /**
+    * The default number of blocks read ahead of a sequential scan.
+    */
+   public static final int DEFAULT_READ_AHEAD = 8;
+   
+   /**
+    * The smallest number of buffers in a shard.
+    * A small pool has fewer shards than requested,
+    * so that each shard has room for its working set.
+    */
+   public static final int MIN_SHARD_BUFFERS = 8;
+   
+   /**
+    * The number of consecutive blocks of a file
+    * that belong to the same shard.
+    */
+   public static final int SHARD_RUN_BLOCKS = 8;
+   
+   /**
+    * The default number of blocks in the ring of a large scan.
+    */
+   public static final int DEFAULT_RING_SIZE = 32;
+   
+   /**
+    * The default fraction of the pool that a plan must access
+    * for its scans to be confined to a ring.
+    */
+   public static final double DEFAULT_RING_THRESHOLD = 0.25;
+   
+   /**
+    * The largest number of buffers whose pages are
+    * allocated together, as a single slab.
+    */
+   public static final int EXTENT_BUFFERS = 1024;
+   
+   /**
+    * The longest pause, in milliseconds, between the attempts
+    * to retire a buffer that no shard owns.
+    */
+   public static final long MAX_RETIRE_PAUSE = 50;
+   
+   private volatile int numbuffers;
+   private List<Buffer> buffers = new ArrayList<Buffer>();
+   private DirtyPageTable dirtyPageTable = new DirtyPageTable();
+   private final Object resizeLock = new Object();
+   private BasicBufferMgr[] shards;
+   private volatile long maxWaitTime = DEFAULT_MAX_TIME;
+   private LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+   private volatile int numWaiting = 0;
+   private AtomicLong numWaits = new AtomicLong(0);
+   private AtomicLong waitNanos = new AtomicLong(0);
+   private AtomicLong numCleanerFailures = new AtomicLong(0);
+   private volatile RuntimeException lastCleanerFailure = null;
+   private PageCleaner cleaner = null;
+   private BufferWarmer warmer = null;
+   private volatile ReadAhead readAhead = new ReadAhead(DEFAULT_READ_AHEAD);
+   private volatile int ringSize = DEFAULT_RING_SIZE;
+   private volatile double ringThreshold = DEFAULT_RING_THRESHOLD;
    
    /**
     * Creates a new buffer manager having the specified 
@@ -36,7 +153,40 @@ public class BufferMgr {
     * @param numbuffers the number of buffer slots to allocate
     */
    public BufferMgr(int numbuffers) {
-      bufferMgr = new BasicBufferMgr(numbuffers);
+      this(numbuffers, ReplacementPolicy.LRU);
+   }
+   
+   /**
+    * Creates a new buffer manager having the specified 
+    * number of buffers and the specified replacement policy.
+    * The policy is one of "lru", "clock", "lru-k" or "2q".
+    * @param numbuffers the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    */
+   public BufferMgr(int numbuffers, String policyname) {
+      this(numbuffers, policyname, Runtime.getRuntime().availableProcessors());
+   }
+   
+   /**
+    * Creates a new buffer manager having the specified 
+    * number of buffers, replacement policy and number of shards.
+    * The buffers are divided evenly among the shards.
+    * The pages of the buffers are allocated in extents,
+    * each of which is a slice of a large off-heap slab.
+    * @param numbuffers the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @param numshards the requested number of shards
+    */
+   public BufferMgr(int numbuffers, String policyname, int numshards) {
+      this.numbuffers = numbuffers;
+      numshards = Math.max(1, Math.min(numshards, numbuffers / MIN_SHARD_BUFFERS));
+      Buffer[] all = allocate(numbuffers);
+      shards = new BasicBufferMgr[numshards];
+      for (int i=0; i<numshards; i++) {
+         int start = (int) ((long) i * numbuffers / numshards);
+         int end = (int) ((long) (i+1) * numbuffers / numshards);
+         shards[i] = new BasicBufferMgr(Arrays.copyOfRange(all, start, end), policyname);
+      }
    }
    
    /**
@@ -44,24 +194,182 @@ public class BufferMgr {
     * waiting until a buffer becomes available.
     * If no buffer becomes available within a fixed 
     * time period, then a {@link BufferAbortException} is thrown.
+    * If the pin continues a sequential scan of the block's file,
+    * then the next blocks of the file are prefetched
+    * while the pinned block is read.
+    * @param blk a reference to a disk block
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(Block blk) {
+      return pin(blk, null);
+   }
+   
+   /**
+    * Pins a buffer to the specified block on behalf
+    * of a scan that is confined to the specified ring.
+    * If the block is not in the pool, then it joins the ring,
+    * as do the blocks read ahead of it that are not in the pool.
+    * A block that is pushed out of the ring by them is demoted,
+    * so that its buffer will be the next to be replaced.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring, or null if the scan has none
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(Block blk, BufferRing ring) {
+      return pin(blk, ring, null);
+   }
+   
+   /**
+    * Pins a buffer to the specified block on behalf of a client
+    * that may have a ring and a reservation.
+    * If the block is not in the pool and the reservation
+    * holds a spare buffer, then the spare is used,
+    * and the pin does not wait.
     * @param blk a reference to a disk block
+    * @param ring the scan's ring, or null if the scan has none
+    * @param res the client's reservation, or null if it has none
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(Block blk) {
+   public Buffer pin(Block blk, BufferRing ring, BufferReservation res) {
+      if (ring != null && !shardOf(blk).contains(blk))
+         addToRing(ring, blk);
+      Buffer buff = (res != null && res.hasSpare()) ? shardOf(blk).pin(blk, res)
+                                                    : pinBuffer(blk);
+      ReadAhead ra = readAhead;
+      if (ra != null) {
+         Block[] blks = ra.pinned(blk);
+         if (blks != null) {
+            if (ring != null)
+               for (Block b : blks)
+                  if (!shardOf(b).contains(b))
+                     addToRing(ring, b);
+            prefetch(blks);
+         }
+      }
       try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pin(blk);
+         buff.waitForRead();
+      }
+      catch(RuntimeException e) {
+         unpin(buff);
+         throw e;
+      }
+      return buff;
+   }
+   
+   /**
+    * Starts reading the specified blocks into unpinned buffers,
+    * so that later pins of them will not have to wait.
+    * The method returns without waiting for the reads.
+    * Runs of consecutive blocks are read by a single vectored read.
+    * It is only a hint: blocks for which there are no
+    * clean unpinned buffers are not read.
+    * @param blks references to the disk blocks
+    */
+   public void prefetch(Block... blks) {
+      if (shards.length == 1) {
+         shards[0].prefetch(blks);
+         return;
+      }
+      for (Map.Entry<BasicBufferMgr,List<Block>> e : groupByShard(blks).entrySet()) {
+         List<Block> list = e.getValue();
+         e.getKey().prefetch(list.toArray(new Block[list.size()]));
+      }
+   }
+   
+   /**
+    * Starts reading the specified blocks into buffers that
+    * hold no block, as a warm-up of the pool does.
+    * No block in the pool is replaced.
+    * @param blks references to the disk blocks
+    * @return the buffers whose blocks are being read
+    */
+   List<Buffer> warm(Block[] blks) {
+      List<Buffer> buffs = new ArrayList<Buffer>();
+      for (Map.Entry<BasicBufferMgr,List<Block>> e : groupByShard(blks).entrySet()) {
+         List<Block> list = e.getValue();
+         buffs.addAll(e.getKey().warm(list.toArray(new Block[list.size()])));
+      }
+      return buffs;
+   }
+   
+   /**
+    * Returns the blocks that are in the pool, sorted by
+    * filename and block number, so that they can be
+    * read back in order to warm up the pool after a restart.
+    * Blocks of temporary files are omitted, since those
+    * files are deleted when the system restarts.
+    * @return the resident blocks
+    */
+   public List<Block> residentBlocks() {
+      List<Block> blks = new ArrayList<Block>();
+      for (BasicBufferMgr shard : shards)
+         for (Block blk : shard.blocks())
+            if (!blk.fileName().startsWith("temp"))
+               blks.add(blk);
+      Collections.sort(blks, new Comparator<Block>() {
+         public int compare(Block b1, Block b2) {
+            int result = b1.fileName().compareTo(b2.fileName());
+            if (result != 0)
+               return result;
+            return b1.number() - b2.number();
          }
-         if (buff == null)
-            throw new BufferAbortException();
-         return buff;
+      });
+      return blks;
+   }
+   
+   /**
+    * Starts a background thread that reads the specified blocks
+    * into the empty buffers of the pool, such as the blocks
+    * that were resident when the system last shut down.
+    * Any warm-up that is already running is stopped first.
+    * @param blks the blocks, sorted by filename and block number
+    * @see BufferWarmer
+    */
+   public synchronized void startWarmUp(List<Block> blks) {
+      stopWarmUp();
+      if (blks.isEmpty())
+         return;
+      warmer = new BufferWarmer(this, blks);
+      warmer.start();
+   }
+   
+   /**
+    * Stops the background warm-up, if it is running.
+    */
+   public synchronized void stopWarmUp() {
+      if (warmer != null) {
+         warmer.shutdown();
+         warmer = null;
       }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
+   }
+   
+   /**
+    * Returns true if the pool is still being warmed up.
+    * @return true if the warm-up thread is running
+    */
+   public synchronized boolean isWarmingUp() {
+      return warmer != null && warmer.isAlive();
+   }
+   
+   /**
+    * Chooses a buffer for the specified block and pins it,
+    * potentially waiting until a buffer becomes available.
+    * The block's contents may not have been read yet.
+    * @param blk a reference to a disk block
+    * @return the buffer pinned to that block
+    */
+   private Buffer pinBuffer(Block blk) {
+      Buffer buff = tryPin(blk);
+      if (buff != null)
+         return buff;
+      Waiter w = enlist();
+      buff = tryPin(blk);
+      if (buff != null) {
+         withdraw(w, shardOf(blk));
+         return buff;
       }
+      Buffer spare = awaitBuffer(w);
+      return shardOf(blk).pin(blk, spare);
    }
    
    /**
@@ -73,41 +381,190 @@ public class BufferMgr {
     * @param fmtr the formatter used to initialize the page
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pinNew(filename, fmtr);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pinNew(filename, fmtr);
-         }
-         if (buff == null)
-            throw new BufferAbortException();
+   public Buffer pinNew(String filename, PageFormatter fmtr) {
+      return pinNew(filename, fmtr, null);
+   }
+   
+   /**
+    * Pins a buffer to a new block in the specified file
+    * on behalf of a scan that is confined to the specified ring,
+    * such as a bulk load.
+    * The new block joins the ring.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the page
+    * @param ring the scan's ring, or null if the scan has none
+    * @return the buffer pinned to that block
+    */
+   public Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      return pinNew(filename, fmtr, ring, null);
+   }
+   
+   /**
+    * Pins a buffer to a new block in the specified file
+    * on behalf of a client that may have a ring and a reservation.
+    * If the reservation holds a spare buffer, then the
+    * spare is used, and the pin does not wait.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the page
+    * @param ring the scan's ring, or null if the scan has none
+    * @param res the client's reservation, or null if it has none
+    * @return the buffer pinned to that block
+    */
+   public Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring, BufferReservation res) {
+      Buffer buff = (res != null && res.hasSpare())
+            ? shardOfNew(filename).pinNew(filename, fmtr, res.take())
+            : pinNewBuffer(filename, fmtr);
+      if (ring != null)
+         addToRing(ring, buff.block());
+      return buff;
+   }
+   
+   private Buffer pinNewBuffer(String filename, PageFormatter fmtr) {
+      Buffer buff = tryPinNew(filename, fmtr);
+      if (buff != null)
+         return buff;
+      Waiter w = enlist();
+      buff = tryPinNew(filename, fmtr);
+      if (buff != null) {
+         withdraw(w, shardOfNew(filename));
          return buff;
       }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
-      }
+      Buffer spare = awaitBuffer(w);
+      return shardOfNew(filename).pinNew(filename, fmtr, spare);
    }
    
    /**
     * Unpins the specified buffer. 
-    * If the buffer's pin count becomes 0,
-    * then the threads on the wait list are notified.
+    * If the buffer's pin count becomes 0 and
+    * threads are waiting, then a buffer is handed to
+    * the thread at the head of the waiting list.
+    * A waiting thread joins the list before it last tries
+    * to pin, and so an unpin that does not see it
+    * happened early enough for that try to succeed.
+    * @param buff the buffer to be unpinned
+    */
+   public void unpin(Buffer buff) {
+      unpin(buff, null);
+   }
+   
+   /**
+    * Unpins the specified buffer on behalf of a client
+    * that may have a reservation.
+    * If the buffer's pin count becomes 0 and the reservation
+    * holds fewer spare buffers than its quota, then the shard
+    * gives up a buffer to the reservation;
+    * otherwise, a buffer is handed to a waiting thread, if any.
     * @param buff the buffer to be unpinned
+    * @param res the client's reservation, or null if it has none
+    */
+   public void unpin(Buffer buff, BufferReservation res) {
+      BasicBufferMgr shard = shardOf(buff.block());
+      if (!shard.unpin(buff))
+         return;
+      if (res != null && res.needsSpare()) {
+         Buffer spare = shard.surrender();
+         if (spare != null) {
+            res.add(spare);
+            return;
+         }
+      }
+      if (numWaiting > 0)
+         handOff(shard);
+   }
+   
+   /**
+    * Reserves up to the specified number of buffers,
+    * by moving unpinned buffers from the shards
+    * to the reservation, without waiting.
+    * Dirty buffers are written to disk as they are moved.
+    * The reservation's quota grows by the number of buffers
+    * granted, which is less than requested if there are not
+    * enough unpinned buffers.
+    * @param res the reservation
+    * @param n the number of buffers requested
+    * @return the number of buffers granted
+    */
+   public int reserve(BufferReservation res, int n) {
+      int granted = 0;
+      boolean found = true;
+      while (granted < n && found) {
+         found = false;
+         for (int i=0; i<shards.length && granted<n; i++) {
+            Buffer buff = shards[i].surrender();
+            if (buff != null) {
+               res.grant(buff);
+               granted++;
+               found = true;
+            }
+         }
+      }
+      return granted;
+   }
+   
+   /**
+    * Decreases the quota of the reservation by the specified
+    * number of buffers.
+    * The spare buffers that are then more than the quota
+    * are handed to waiting threads, or returned to the shards.
+    * @param res the reservation
+    * @param n the number of buffers to release
+    */
+   public void release(BufferReservation res, int n) {
+      List<Buffer> excess = res.shrink(n);
+      for (int i=0; i<excess.size(); i++)
+         release(excess.get(i), shards[i % shards.length]);
+   }
+   
+   /**
+    * Sets how long a thread waits for a buffer before
+    * a {@link BufferAbortException} is thrown.
+    * @param millis the maximum wait, in milliseconds
     */
-   public synchronized void unpin(Buffer buff) {
-      bufferMgr.unpin(buff);
-      if (!buff.isPinned())
-         notifyAll();
+   public void setMaxWaitTime(long millis) {
+      maxWaitTime = millis;
    }
    
    /**
     * Flushes the dirty buffers modified by the specified transaction.
+    * The buffers are found in the dirty page table,
+    * so the cost is proportional to the number of buffers
+    * that the transaction modified, not to the size of the pool.
     * @param txnum the transaction's id number
     */
    public void flushAll(int txnum) {
-      bufferMgr.flushAll(txnum);
+      for (Buffer buff : dirtyPageTable.modifiedBy(txnum))
+         flush(buff);
+   }
+   
+   /**
+    * Flushes every dirty buffer, as a checkpoint requires.
+    * Only the buffers in the dirty page table are visited.
+    */
+   public void flushAll() {
+      for (Buffer buff : dirtyPageTable.buffers())
+         flush(buff);
+   }
+   
+   /**
+    * Returns the blocks of the dirty buffers, each mapped to
+    * its recovery LSN: the LSN of the first log record for a
+    * modification since the block was last written, or -1 if
+    * none of its modifications were logged.
+    * @return a snapshot of the dirty page table
+    */
+   public Map<Block,Long> dirtyPages() {
+      return dirtyPageTable.blocks();
+   }
+   
+   /**
+    * Returns the smallest recovery LSN of the dirty buffers,
+    * or -1 if no dirty buffer has a log record.
+    * The log records before that LSN are not needed to
+    * restore any page that is in the pool.
+    * @return the smallest recovery LSN
+    */
+   public long minRecoveryLSN() {
+      return dirtyPageTable.minRecoveryLSN();
    }
    
    /**
@@ -115,10 +572,579 @@ public class BufferMgr {
     * @return the number of available buffers
     */
    public int available() {
-      return bufferMgr.available();
+      int count = 0;
+      for (BasicBufferMgr shard : shards)
+         count += shard.available();
+      return count;
+   }
+   
+   /**
+    * Sets the number of blocks that are read ahead
+    * of a sequential scan at a time.
+    * A value of 0 turns off read-ahead.
+    * @param window the number of blocks to read ahead
+    */
+   public void setReadAhead(int window) {
+      readAhead = (window > 0) ? new ReadAhead(window) : null;
+   }
+   
+   /**
+    * Returns a ring for the scans of a plan that accesses
+    * the specified number of blocks, or null if the plan is small
+    * enough that its scans can use the whole pool.
+    * A ring is returned only if the plan accesses more than
+    * the ring threshold's fraction of the pool, and the ring
+    * would be no more than a quarter of the pool.
+    * @param blocks the estimated number of blocks accessed by the plan
+    * @return a new ring, or null
+    */
+   public BufferRing ringFor(int blocks) {
+      int size = ringSize;
+      if (size > 0 && blocks > ringThreshold * numbuffers && size <= numbuffers / 4)
+         return new BufferRing(size);
+      return null;
+   }
+   
+   /**
+    * Sets the size of the rings used by large scans,
+    * and the fraction of the pool that a plan must access
+    * for its scans to use a ring.
+    * A size of 0 turns off rings.
+    * @param size the number of blocks in a ring
+    * @param threshold the fraction of the pool
+    */
+   public void setScanRing(int size, double threshold) {
+      ringSize = size;
+      ringThreshold = threshold;
    }
    
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+   /**
+    * Returns the number of buffers in the pool.
+    * @return the size of the pool
+    */
+   public int size() {
+      return numbuffers;
+   }
+   
+   /**
+    * Changes the number of buffers in the pool,
+    * while the pool is in use.
+    * The number of shards does not change.
+    * <p>
+    * When the pool grows, the new buffers are handed to
+    * the waiting threads, and the rest are divided
+    * evenly among the shards.
+    * <p>
+    * When the pool shrinks, the most recently allocated buffers
+    * are removed; a dirty buffer is written to disk first.
+    * A buffer that is pinned is drained: it is removed
+    * when it is next unpinned.
+    * If the buffers are not all unpinned within the maximum
+    * wait time (see {@link #setMaxWaitTime(long)}), then the pool
+    * keeps the ones that are still pinned, and a
+    * {@link BufferAbortException} is thrown.
+    * A thread must therefore not shrink the pool while it
+    * holds pins of its own.
+    * Nor can the spare buffers of a
+    * {@link BufferReservation reservation} be removed
+    * until they are released.
+    * @param newsize the new number of buffers
+    * @return the number of buffers in the pool
+    * @throws BufferAbortException if the pool could not be shrunk in time
+    */
+   public int resize(int newsize) {
+      if (newsize < 1)
+         throw new RuntimeException("invalid buffer pool size: " + newsize);
+      synchronized (resizeLock) {
+         if (newsize > numbuffers)
+            grow(newsize - numbuffers);
+         else if (newsize < numbuffers)
+            shrink(numbuffers - newsize);
+         return numbuffers;
+      }
+   }
+   
+   /**
+    * Starts a background thread that keeps the buffers that are
+    * about to be replaced clean, by writing dirty ones.
+    * Any cleaner that is already running is stopped first.
+    * @param target the fraction of each shard's unpinned buffers to keep clean
+    * @param rate the maximum number of pages written per second
+    */
+   public synchronized void startCleaner(double target, int rate) {
+      stopCleaner();
+      cleaner = new PageCleaner(this, shards, target, rate);
+      for (BasicBufferMgr shard : shards)
+         shard.setCleaner(cleaner);
+      cleaner.start();
+   }
+   
+   /**
+    * Stops the background cleaner, if it is running.
+    */
+   public synchronized void stopCleaner() {
+      if (cleaner != null) {
+         for (BasicBufferMgr shard : shards)
+            shard.setCleaner(null);
+         cleaner.shutdown();
+         cleaner = null;
+      }
+   }
+   
+   /**
+    * Returns the number of shards in the buffer pool.
+    * @return the number of shards
+    */
+   public int shards() {
+      return shards.length;
+   }
+   
+   /**
+    * Returns the number of pins since the buffer manager
+    * was created or its statistics were last reset.
+    * @return the number of pins
+    */
+   public long pinCount() {
+      long count = 0;
+      for (BasicBufferMgr shard : shards)
+         count += shard.pinCount();
+      return count;
+   }
+   
+   /**
+    * Returns the number of pins whose block was already
+    * in the pool.
+    * @return the number of hits
+    */
+   public long hitCount() {
+      long count = 0;
+      for (BasicBufferMgr shard : shards)
+         count += shard.hitCount();
+      return count;
+   }
+   
+   /**
+    * Returns the fraction of pins whose block was already
+    * in the pool, or 0 if there have been no pins.
+    * @return the hit ratio
+    */
+   public double hitRatio() {
+      long pins = pinCount();
+      return (pins == 0) ? 0 : (double) hitCount() / pins;
+   }
+   
+   /**
+    * Returns the number of pins that had to write
+    * a dirty buffer before they could reuse it.
+    * The page cleaner exists to keep this number low.
+    * @return the number of dirty victims
+    */
+   public long dirtyVictimCount() {
+      long count = 0;
+      for (BasicBufferMgr shard : shards)
+         count += shard.dirtyVictimCount();
+      return count;
+   }
+   
+   /**
+    * Returns the number of pins that had to wait for a buffer.
+    * @return the number of waits
+    */
+   public long waitCount() {
+      return numWaits.get();
+   }
+   
+   /**
+    * Returns the total time that pins have spent
+    * waiting for buffers, in milliseconds.
+    * @return the total wait time
+    */
+   public double waitTime() {
+      return waitNanos.get() / 1e6;
+   }
+   
+   /**
+    * Returns the average time that a pin has spent
+    * waiting for a buffer, in milliseconds.
+    * The average is over all pins, including those that
+    * did not wait, and is 0 if there have been no pins.
+    * @return the wait time per pin
+    */
+   public double waitTimePerPin() {
+      long pins = pinCount();
+      return (pins == 0) ? 0 : waitTime() / pins;
+   }
+   
+   /**
+    * Returns the number of rounds of the page cleaner
+    * that failed, such as when a page could not be written.
+    * @return the number of failed rounds
+    */
+   public long cleanerFailureCount() {
+      return numCleanerFailures.get();
+   }
+   
+   /**
+    * Returns the exception that caused the most recent
+    * failed round of the page cleaner, or null if there is none.
+    * @return the most recent failure of the cleaner
+    */
+   public RuntimeException lastCleanerFailure() {
+      return lastCleanerFailure;
+   }
+   
+   /**
+    * Resets the pin, hit, wait and cleaner failure statistics to zero.
+    */
+   public void resetStatistics() {
+      for (BasicBufferMgr shard : shards)
+         shard.resetStatistics();
+      numWaits.set(0);
+      waitNanos.set(0);
+      numCleanerFailures.set(0);
+      lastCleanerFailure = null;
+   }
+   
+   /**
+    * Records a failed round of the page cleaner.
+    * @param e the exception that caused the failure
+    */
+   void cleanerFailed(RuntimeException e) {
+      numCleanerFailures.incrementAndGet();
+      lastCleanerFailure = e;
+   }
+   
+   /**
+    * Tries to pin the block in its shard, without waiting.
+    * If the shard has no unpinned buffer,
+    * then it takes one from another shard and tries again.
+    * @param blk a reference to a disk block
+    * @return the pinned buffer, or null
+    */
+   private Buffer tryPin(Block blk) {
+      BasicBufferMgr shard = shardOf(blk);
+      Buffer buff = shard.pin(blk);
+      if (buff == null && steal(shard))
+         buff = shard.pin(blk);
+      return buff;
+   }
+   
+   /**
+    * Tries to pin a new block of the file, without waiting.
+    * The new block belongs to the shard of the block
+    * at the current end of the file.
+    * That is the block that will be appended, because
+    * a transaction appends to a file only while it holds
+    * an exclusive lock on the file's end-of-file marker.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the page
+    * @return the pinned buffer, or null
+    */
+   private Buffer tryPinNew(String filename, PageFormatter fmtr) {
+      BasicBufferMgr shard = shardOfNew(filename);
+      Buffer buff = shard.pinNew(filename, fmtr);
+      if (buff == null && steal(shard))
+         buff = shard.pinNew(filename, fmtr);
+      return buff;
+   }
+   
+   /**
+    * Moves an unpinned buffer from another shard
+    * to the specified one.
+    * The other shards are tried in turn, starting with
+    * the one after the specified shard.
+    * @param thief the shard that needs a buffer
+    * @return true if a buffer was moved
+    */
+   private boolean steal(BasicBufferMgr thief) {
+      int first = Arrays.asList(shards).indexOf(thief);
+      for (int i=1; i<shards.length; i++) {
+         Buffer buff = shards[(first + i) % shards.length].surrender();
+         if (buff != null) {
+            thief.adopt(buff);
+            return true;
+         }
+      }
+      return false;
+   }
+   
+   /**
+    * Adds a new waiter to the end of the waiting list.
+    * @return the waiter
+    */
+   private synchronized Waiter enlist() {
+      Waiter w = new Waiter();
+      waiters.add(w);
+      numWaiting = waiters.size();
+      return w;
+   }
+   
+   /**
+    * Removes the waiter from the waiting list,
+    * after its thread has found a buffer by itself.
+    * If a buffer had already been handed to the waiter,
+    * then the buffer is added to the specified shard,
+    * and handed on to the next waiter.
+    * @param w the waiter
+    * @param shard the shard of the block that was pinned
+    */
+   private void withdraw(Waiter w, BasicBufferMgr shard) {
+      synchronized (this) {
+         if (waiters.remove(w)) {
+            numWaiting = waiters.size();
+            return;
+         }
+      }
+      shard.adopt(w.buffer());
+      if (numWaiting > 0)
+         handOff(shard);
+   }
+   
+   /**
+    * Waits until a buffer is handed to the waiter,
+    * and records the time waited.
+    * @param w the waiter
+    * @return the buffer handed to the waiter
+    * @throws BufferAbortException if the wait times out or is interrupted
+    */
+   private Buffer awaitBuffer(Waiter w) {
+      long start = System.nanoTime();
+      Buffer spare;
+      try {
+         spare = w.await(maxWaitTime);
+      }
+      catch(InterruptedException e) {
+         spare = null;
+      }
+      if (spare == null) {
+         synchronized (this) {
+            if (waiters.remove(w)) {
+               numWaiting = waiters.size();
+               recordWait(start);
+               throw new BufferAbortException();
+            }
+         }
+         // the buffer was handed over as the wait ended
+         spare = w.buffer();
+      }
+      recordWait(start);
+      return spare;
+   }
+   
+   /**
+    * Takes a buffer from the specified shard, which has just
+    * unpinned one, and hands it to the thread at the head of the
+    * waiting list.
+    * The buffer goes back to the shard if the list has emptied,
+    * or if another thread has already pinned it.
+    * @param shard the shard
+    */
+   private void handOff(BasicBufferMgr shard) {
+      Buffer spare = shard.surrender();
+      if (spare != null)
+         release(spare, shard);
+   }
+   
+   /**
+    * Hands an unpinned buffer to the thread at the head
+    * of the waiting list, or adds it to the specified shard
+    * if the list is empty.
+    * @param buff the buffer, which belongs to no shard
+    * @param shard the shard
+    */
+   private void release(Buffer buff, BasicBufferMgr shard) {
+      synchronized (this) {
+         Waiter w = waiters.poll();
+         if (w != null) {
+            numWaiting = waiters.size();
+            w.hand(buff);
+            return;
+         }
+      }
+      shard.adopt(buff);
+   }
+   
+   /**
+    * Creates the specified number of buffers, whose pages are
+    * allocated in extents of at most {@link #EXTENT_BUFFERS} pages,
+    * and adds them to the list of buffers.
+    * @param n the number of buffers
+    * @return the new buffers
+    */
+   private Buffer[] allocate(int n) {
+      Buffer[] buffs = new Buffer[n];
+      for (int i=0; i<n; i+=EXTENT_BUFFERS) {
+         Page[] pages = Page.allocate(Math.min(EXTENT_BUFFERS, n - i));
+         for (int j=0; j<pages.length; j++)
+            buffs[i + j] = new Buffer(pages[j], dirtyPageTable);
+      }
+      buffers.addAll(Arrays.asList(buffs));
+      return buffs;
+   }
+   
+   private void grow(int n) {
+      Buffer[] buffs = allocate(n);
+      numbuffers += n;
+      for (int i=0; i<n; i++)
+         release(buffs[i], shards[i % shards.length]);
+   }
+   
+   /**
+    * Removes the specified number of buffers, taken from
+    * the end of the list of buffers.
+    * All of them are retired first, so that the pinned ones
+    * drain at the same time.
+    * @param n the number of buffers to remove
+    * @throws BufferAbortException if some buffers could not be removed in time
+    */
+   private void shrink(int n) {
+      long deadline = System.currentTimeMillis() + maxWaitTime;
+      List<Buffer> victims = new ArrayList<Buffer>(buffers.subList(buffers.size() - n, buffers.size()));
+      List<BasicBufferMgr> owners = new ArrayList<BasicBufferMgr>();
+      for (Buffer buff : victims)
+         owners.add(retire(buff, deadline));
+      Set<Buffer> removed = new HashSet<Buffer>();
+      for (int i=0; i<victims.size(); i++) {
+         BasicBufferMgr owner = owners.get(i);
+         boolean done;
+         try {
+            done = owner != null && owner.awaitRetired(victims.get(i), deadline);
+         }
+         catch(InterruptedException e) {
+            // stop waiting, but still account for every buffer
+            Thread.currentThread().interrupt();
+            deadline = 0;
+            i--;
+            continue;
+         }
+         if (done)
+            removed.add(victims.get(i));
+      }
+      buffers.removeAll(removed);
+      numbuffers = buffers.size();
+      if (removed.size() < n)
+         throw new BufferAbortException();
+   }
+   
+   /**
+    * Retires the buffer in the shard that owns it.
+    * A buffer that is moving between shards is owned by
+    * none of them for a moment, and a spare buffer of a
+    * reservation is owned by none of them until it is released.
+    * The shards are therefore tried again after a pause,
+    * which doubles after each attempt (up to
+    * {@link #MAX_RETIRE_PAUSE} milliseconds),
+    * until one owns the buffer or the time is up.
+    * If the thread is interrupted, it stops trying
+    * and its interrupt status is restored.
+    * @param buff the buffer
+    * @param deadline the time at which to give up, in milliseconds
+    * @return the shard that owns the buffer, or null
+    */
+   private BasicBufferMgr retire(Buffer buff, long deadline) {
+      long pause = 1;
+      while (true) {
+         for (BasicBufferMgr shard : shards)
+            if (shard.retire(buff))
+               return shard;
+         long remaining = deadline - System.currentTimeMillis();
+         if (remaining <= 0)
+            return null;
+         try {
+            Thread.sleep(Math.min(pause, remaining));
+         }
+         catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+         }
+         pause = Math.min(2 * pause, MAX_RETIRE_PAUSE);
+      }
+   }
+   
+   /**
+    * Writes the buffer to disk if it is dirty,
+    * while holding the lock of the shard that owns it.
+    * A dirty buffer belongs to the shard of its block;
+    * the other shards are tried only if it does not.
+    * @param buff the buffer
+    */
+   private void flush(Buffer buff) {
+      Block blk = buff.block();
+      if (blk != null && shardOf(blk).flush(buff))
+         return;
+      for (BasicBufferMgr shard : shards)
+         if (shard.flush(buff))
+            return;
+   }
+   
+   private void addToRing(BufferRing ring, Block blk) {
+      Block oldest = ring.add(blk);
+      if (oldest != null)
+         shardOf(oldest).demote(oldest);
+   }
+   
+   private void recordWait(long start) {
+      numWaits.incrementAndGet();
+      waitNanos.addAndGet(System.nanoTime() - start);
+   }
+   
+   private Map<BasicBufferMgr,List<Block>> groupByShard(Block[] blks) {
+      Map<BasicBufferMgr,List<Block>> shardblks = new HashMap<BasicBufferMgr,List<Block>>();
+      for (Block blk : blks) {
+         BasicBufferMgr shard = shardOf(blk);
+         List<Block> list = shardblks.get(shard);
+         if (list == null) {
+            list = new ArrayList<Block>();
+            shardblks.put(shard, list);
+         }
+         list.add(blk);
+      }
+      return shardblks;
+   }
+   
+   private BasicBufferMgr shardOfNew(String filename) {
+      return shardOf(new Block(filename, SimpleDB.fileMgr().size(filename)));
+   }
+   
+   private BasicBufferMgr shardOf(Block blk) {
+      if (shards.length == 1)
+         return shards[0];
+      int h = blk.fileName().hashCode() * 31 + blk.number() / SHARD_RUN_BLOCKS;
+      h ^= (h >>> 16);
+      return shards[(h & Integer.MAX_VALUE) % shards.length];
+   }
+   
+   /**
+    * A thread on the waiting list.
+    * The thread waits on the object until a buffer
+    * is handed to it.
+    */
+   private static class Waiter {
+      private Buffer buff = null;
+      
+      synchronized void hand(Buffer buff) {
+         this.buff = buff;
+         notify();
+      }
+      
+      synchronized Buffer buffer() {
+         return buff;
+      }
+      
+      /**
+       * Waits until a buffer is handed over or the time is up.
+       * @param maxtime the maximum wait, in milliseconds
+       * @return the buffer, or null if none was handed over
+       */
+      synchronized Buffer await(long maxtime) throws InterruptedException {
+         long deadline = System.currentTimeMillis() + maxtime;
+         while (buff == null) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+               break;
+            wait(remaining);
+         }
+         return buff;
+      }
    }
 }
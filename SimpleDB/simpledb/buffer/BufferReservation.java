@@ -0,0 +1,94 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * A quota of buffers that is reserved for a client,
+ * such as the transaction of a multibuffer operator.
+ * The reservation holds spare buffers, which belong to
+ * no shard and so cannot be taken by other clients.
+ * A pin by the client whose block is not in the pool
+ * uses one of the spares; when one of the client's buffers
+ * is unpinned, the reservation takes a buffer back,
+ * until it again holds its full quota.
+ * The client can therefore pin as many blocks as its quota
+ * without waiting, however often it unpins them.
+ * <p>
+ * Buffers are reserved and released by
+ * {@link BufferMgr#reserve(BufferReservation, int)} and
+ * {@link BufferMgr#release(BufferReservation, int)}.
+ * A reservation is used by a single transaction,
+ * and so it is not thread-safe.
+ * @author Edward Sciore
+ */
+public class BufferReservation {
+   private int quota = 0;
+   private LinkedList<Buffer> spares = new LinkedList<Buffer>();
+
+   /**
+    * Returns the number of buffers that are reserved.
+    * @return the quota
+    */
+   public int size() {
+      return quota;
+   }
+
+   /**
+    * Returns true if the reservation holds a spare buffer.
+    * @return true if a pin can use a spare
+    */
+   boolean hasSpare() {
+      return !spares.isEmpty();
+   }
+
+   /**
+    * Removes a spare buffer from the reservation.
+    * @return the spare buffer
+    */
+   Buffer take() {
+      return spares.poll();
+   }
+
+   /**
+    * Returns true if the reservation holds fewer
+    * spare buffers than its quota.
+    * @return true if a buffer should be taken back
+    */
+   boolean needsSpare() {
+      return spares.size() < quota;
+   }
+
+   /**
+    * Adds a spare buffer to the reservation,
+    * without changing its quota.
+    * @param buff an unpinned buffer that belongs to no shard
+    */
+   void add(Buffer buff) {
+      spares.add(buff);
+   }
+
+   /**
+    * Adds a newly-reserved buffer to the reservation,
+    * increasing its quota.
+    * @param buff an unpinned buffer that belongs to no shard
+    */
+   void grant(Buffer buff) {
+      spares.add(buff);
+      quota++;
+   }
+
+   /**
+    * Decreases the quota by the specified amount,
+    * and returns the spare buffers that are then
+    * more than the quota.
+    * @param n the number of buffers to release
+    * @return the spare buffers that are no longer reserved
+    */
+   List<Buffer> shrink(int n) {
+      quota = Math.max(0, quota - n);
+      List<Buffer> excess = new ArrayList<Buffer>();
+      while (spares.size() > quota)
+         excess.add(spares.removeLast());
+      return excess;
+   }
+}
@@ -0,0 +1,63 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * A small ring of buffers to which a large sequential scan
+ * is confined, so that the scan does not flush the pool.
+ * The ring remembers the blocks that the scan brought
+ * into the pool, whether by a pin that missed, by read-ahead,
+ * or by appending, in the order in which they were brought in.
+ * When the ring holds more blocks than its size, the oldest
+ * block leaves the ring, and the buffer manager
+ * {@link ReplacementPolicy#demote(Buffer) demotes} its buffer,
+ * so that its buffer is the next to be replaced;
+ * typically, the scan's next miss then reuses it.
+ * A block that was already in the pool when the scan
+ * pinned it is not put in the ring, so that the scan
+ * never demotes the pages of other transactions.
+ * <p>
+ * A ring is used by a single scan (or by the scans of a
+ * single operator, such as a sort), and so it is not thread-safe.
+ * The planner obtains a ring from
+ * {@link BufferMgr#ringFor(int)} when it opens a plan that
+ * accesses many blocks.
+ * @author Edward Sciore
+ */
+public class BufferRing {
+   private int size;
+   private Set<Block> blocks = new LinkedHashSet<Block>();
+   
+   /**
+    * Creates an empty ring of the specified size.
+    * @param size the number of blocks in the ring
+    */
+   public BufferRing(int size) {
+      this.size = size;
+   }
+   
+   /**
+    * Adds a block that the scan has brought into the pool.
+    * If the ring is then over its size, its oldest block
+    * is removed and returned.
+    * @param blk the block
+    * @return the block that left the ring, or null
+    */
+   Block add(Block blk) {
+      if (!blocks.add(blk) || blocks.size() <= size)
+         return null;
+      Iterator<Block> iter = blocks.iterator();
+      Block oldest = iter.next();
+      iter.remove();
+      return oldest;
+   }
+   
+   /**
+    * Returns the number of blocks in the ring.
+    * @return the size of the ring
+    */
+   public int size() {
+      return size;
+   }
+}
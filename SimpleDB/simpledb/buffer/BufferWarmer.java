@@ -0,0 +1,73 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * A background thread that warms up the buffer pool after a restart,
+ * by reading back the blocks that were resident in the pool
+ * when its contents were last saved.
+ * <p>
+ * The blocks are sorted by file and block number,
+ * and are read in batches of {@link #BATCH_BLOCKS} blocks,
+ * so that each run of consecutive blocks in a batch is
+ * read by a single vectored read.
+ * The warmer waits for the reads of each batch before it
+ * starts the next one, so that the reads of clients' pins,
+ * which are done by the same I/O threads,
+ * never queue behind more than one batch.
+ * Blocks are read only into buffers that hold no block,
+ * and so the warm-up never replaces the pages that
+ * recovery and the clients read while it runs;
+ * once the pool is full, the remaining batches read nothing.
+ * @author Edward Sciore
+ */
+class BufferWarmer extends Thread {
+   /**
+    * The number of blocks read by each batch.
+    */
+   static final int BATCH_BLOCKS = 64;
+
+   private BufferMgr bufferMgr;
+   private List<Block> blks;
+   private volatile boolean stopped = false;
+
+   /**
+    * Creates a warmer that reads the specified blocks
+    * into the pool of the specified buffer manager.
+    * @param bufferMgr the buffer manager
+    * @param blks the blocks, sorted by filename and block number
+    */
+   BufferWarmer(BufferMgr bufferMgr, List<Block> blks) {
+      super("buffer warmer");
+      this.bufferMgr = bufferMgr;
+      this.blks = new ArrayList<Block>(blks);
+      setDaemon(true);
+   }
+
+   /**
+    * Reads the blocks batch by batch, until they run out
+    * or the warmer is stopped.
+    */
+   public void run() {
+      for (int i=0; i<blks.size() && !stopped; i+=BATCH_BLOCKS) {
+         List<Block> batch = blks.subList(i, Math.min(i + BATCH_BLOCKS, blks.size()));
+         try {
+            List<Buffer> buffs = bufferMgr.warm(batch.toArray(new Block[batch.size()]));
+            for (Buffer buff : buffs)
+               buff.waitForRead();
+         }
+         catch(RuntimeException e) {
+            // a block that cannot be read is simply not warmed
+         }
+      }
+   }
+
+   /**
+    * Stops the warmer after its current batch.
+    */
+   void shutdown() {
+      stopped = true;
+      interrupt();
+   }
+}
@@ -0,0 +1,120 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The clock replacement policy.
+ * Each buffer has a reference bit, which is set when the
+ * buffer is pinned or assigned to a block.
+ * To choose a victim, a clock hand sweeps around the buffers:
+ * a buffer whose bit is set has the bit cleared and gets
+ * a second chance, and the first unpinned buffer whose bit
+ * is clear is replaced.
+ * Demoted buffers are kept aside, and are replaced before
+ * the hand moves, so that replacing them does not clear
+ * the bits of the buffers that the hand would pass.
+ * @author Edward Sciore
+ */
+class ClockPolicy implements ReplacementPolicy {
+   private List<Buffer> clock = new ArrayList<Buffer>();
+   private Map<Buffer,Integer> positions = new IdentityHashMap<Buffer,Integer>();
+   private BitSet referenced = new BitSet();
+   private Set<Buffer> demoted = new LinkedHashSet<Buffer>();
+   private int hand = 0;
+   
+   public void add(Buffer buff) {
+      positions.put(buff, clock.size());
+      clock.add(buff);
+   }
+   
+   /**
+    * Removes the buffer from the clock by moving
+    * the last buffer of the clock into its position.
+    */
+   public void remove(Buffer buff) {
+      demoted.remove(buff);
+      int pos = positions.remove(buff);
+      int last = clock.size() - 1;
+      Buffer lastbuff = clock.remove(last);
+      if (pos != last) {
+         clock.set(pos, lastbuff);
+         positions.put(lastbuff, pos);
+         referenced.set(pos, referenced.get(last));
+      }
+      referenced.clear(last);
+      if (hand >= clock.size())
+         hand = 0;
+   }
+   
+   public void pinned(Buffer buff) {
+      demoted.remove(buff);
+      referenced.set(positions.get(buff));
+   }
+   
+   public void unpinned(Buffer buff) {}
+   
+   public void assigned(Buffer buff, Block oldblk) {
+      demoted.remove(buff);
+      referenced.set(positions.get(buff));
+   }
+   
+   /**
+    * Clears the buffer's reference bit,
+    * and sets the buffer aside to be chosen
+    * before the clock hand moves.
+    */
+   public void demote(Buffer buff) {
+      referenced.clear(positions.get(buff));
+      demoted.add(buff);
+   }
+   
+   /**
+    * Chooses the oldest demoted buffer, if there is one;
+    * otherwise, sweeps the clock hand until it finds an unpinned buffer
+    * whose reference bit is clear.
+    * Two full sweeps suffice, since the first one clears
+    * the bit of every unpinned buffer that it passes.
+    */
+   public Buffer chooseVictim(Set<Buffer> excluded) {
+      for (Buffer buff : demoted)
+         if (!buff.isPinned() && !excluded.contains(buff))
+            return buff;
+      int size = clock.size();
+      for (int i=0; i<2*size; i++) {
+         int pos = hand;
+         hand = (hand + 1) % size;
+         Buffer buff = clock.get(pos);
+         if (buff.isPinned() || excluded.contains(buff))
+            continue;
+         if (referenced.get(pos))
+            referenced.clear(pos);
+         else
+            return buff;
+      }
+      return null;
+   }
+   
+   /**
+    * Returns the unpinned buffers in the order that they
+    * would be chosen:
+    * first the demoted buffers, then those whose reference bit is clear,
+    * and then the rest, each in the order that the hand reaches them.
+    */
+   public List<Buffer> nextVictims(int n) {
+      List<Buffer> victims = new ArrayList<Buffer>();
+      for (Buffer buff : demoted)
+         if (!buff.isPinned() && victims.size() < n)
+            victims.add(buff);
+      int size = clock.size();
+      for (int i=0; i<2*size && victims.size()<n; i++) {
+         int pos = (hand + i) % size;
+         Buffer buff = clock.get(pos);
+         boolean firstsweep = (i < size);
+         if (!buff.isPinned() && referenced.get(pos) != firstsweep
+               && !demoted.contains(buff))
+            victims.add(buff);
+      }
+      return victims;
+   }
+}
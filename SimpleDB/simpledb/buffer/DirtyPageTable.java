@@ -0,0 +1,109 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The dirty page table of a buffer pool.
+ * The table holds the pool's dirty buffers, each with
+ * its recovery LSN: the LSN of the first log record for
+ * a modification since the buffer was last clean.
+ * The dirty buffers are also indexed by the transaction
+ * that modified them, so that a transaction's buffers
+ * can be flushed without looking at the rest of the pool.
+ * <p>
+ * A buffer tells the table when it becomes dirty,
+ * when another transaction modifies it, when it gets
+ * its first log record, and when it is written to disk;
+ * other modifications do not touch the table.
+ * @author Edward Sciore
+ */
+class DirtyPageTable {
+   private Map<Buffer,Long> recoveryLSNs = new HashMap<Buffer,Long>();
+   private Map<Integer,Set<Buffer>> txBuffers = new HashMap<Integer,Set<Buffer>>();
+
+   /**
+    * Records that the specified buffer has been modified.
+    * @param buff the buffer
+    * @param oldtx the transaction that last modified the buffer, or -1 if it was clean
+    * @param newtx the transaction that modified the buffer
+    * @param recLSN the buffer's recovery LSN, or -1 if it has no log record
+    */
+   synchronized void modified(Buffer buff, int oldtx, int newtx, long recLSN) {
+      recoveryLSNs.put(buff, recLSN);
+      if (oldtx == newtx)
+         return;
+      if (oldtx >= 0)
+         removeFromTx(buff, oldtx);
+      Set<Buffer> buffs = txBuffers.get(newtx);
+      if (buffs == null) {
+         buffs = new HashSet<Buffer>();
+         txBuffers.put(newtx, buffs);
+      }
+      buffs.add(buff);
+   }
+
+   /**
+    * Records that the specified buffer has been written to disk.
+    * @param buff the buffer
+    * @param txnum the transaction that last modified the buffer
+    */
+   synchronized void flushed(Buffer buff, int txnum) {
+      recoveryLSNs.remove(buff);
+      removeFromTx(buff, txnum);
+   }
+
+   /**
+    * Returns the buffers that are dirty due to
+    * a modification by the specified transaction.
+    * @param txnum the id of the transaction
+    * @return a copy of the transaction's dirty buffers
+    */
+   synchronized List<Buffer> modifiedBy(int txnum) {
+      Set<Buffer> buffs = txBuffers.get(txnum);
+      if (buffs == null)
+         return Collections.emptyList();
+      return new ArrayList<Buffer>(buffs);
+   }
+
+   /**
+    * Returns all of the dirty buffers.
+    * @return a copy of the dirty buffers
+    */
+   synchronized List<Buffer> buffers() {
+      return new ArrayList<Buffer>(recoveryLSNs.keySet());
+   }
+
+   /**
+    * Returns the dirty blocks, each mapped to
+    * its recovery LSN.
+    * @return a copy of the table
+    */
+   synchronized Map<Block,Long> blocks() {
+      Map<Block,Long> result = new HashMap<Block,Long>();
+      for (Map.Entry<Buffer,Long> e : recoveryLSNs.entrySet())
+         result.put(e.getKey().block(), e.getValue());
+      return result;
+   }
+
+   /**
+    * Returns the smallest recovery LSN of the dirty buffers,
+    * or -1 if no dirty buffer has a log record.
+    * The log records before that LSN are not needed
+    * to restore any page in the pool.
+    * @return the smallest recovery LSN
+    */
+   synchronized long minRecoveryLSN() {
+      long min = -1;
+      for (long lsn : recoveryLSNs.values())
+         if (lsn >= 0 && (min < 0 || lsn < min))
+            min = lsn;
+      return min;
+   }
+
+   private void removeFromTx(Buffer buff, int txnum) {
+      Set<Buffer> buffs = txBuffers.get(txnum);
+      if (buffs != null && buffs.remove(buff) && buffs.isEmpty())
+         txBuffers.remove(txnum);
+   }
+}
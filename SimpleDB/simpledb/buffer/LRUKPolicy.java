@@ -0,0 +1,140 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The LRU-K replacement policy, with K=2.
+ * The policy remembers the times of the last two pins of each block,
+ * where time is measured by counting pins.
+ * The victim is the unpinned buffer whose second-to-last pin
+ * is the oldest; a block that has been pinned only once counts as
+ * infinitely old, and ties are broken by the time of the last pin.
+ * Thus a block that is pinned once, such as a page of a large scan,
+ * is replaced before a block that is pinned repeatedly,
+ * such as a catalog page or the root of a B-tree.
+ * <p>
+ * The history of a replaced block is retained for a while,
+ * so that a block that returns to the pool is recognized;
+ * the policy retains the histories of as many replaced blocks
+ * as it has buffers.
+ * @author Edward Sciore
+ */
+class LRUKPolicy implements ReplacementPolicy {
+   private static final int K = 2;
+   
+   private Map<Buffer,History> histories = new IdentityHashMap<Buffer,History>();
+   private long clock = 0;
+   private int nextId = 0;
+   private TreeSet<Buffer> unpinned;
+   private Map<Block,long[]> retained;
+   
+   /**
+    * Creates the policy, which initially has no buffers.
+    */
+   LRUKPolicy() {
+      unpinned = new TreeSet<Buffer>(new Comparator<Buffer>() {
+         public int compare(Buffer b1, Buffer b2) {
+            return histories.get(b1).compareTo(histories.get(b2));
+         }
+      });
+      retained = new LinkedHashMap<Block,long[]>() {
+         protected boolean removeEldestEntry(Map.Entry<Block,long[]> eldest) {
+            return size() > histories.size();
+         }
+      };
+   }
+   
+   public void add(Buffer buff) {
+      histories.put(buff, new History(nextId++));
+      unpinned.add(buff);
+   }
+   
+   public void remove(Buffer buff) {
+      unpinned.remove(buff);
+      History h = histories.remove(buff);
+      if (buff.block() != null)
+         retained.put(buff.block(), h.times);
+   }
+   
+   public void pinned(Buffer buff) {
+      unpinned.remove(buff);
+      long[] times = histories.get(buff).times;
+      for (int i=K-1; i>0; i--)
+         times[i] = times[i-1];
+      times[0] = ++clock;
+   }
+   
+   public void unpinned(Buffer buff) {
+      unpinned.add(buff);
+   }
+   
+   /**
+    * Retains the history of the buffer's previous block,
+    * and restores the retained history of its new block, if any.
+    * A prefetched block has not been pinned,
+    * and so it does not gain any history.
+    */
+   public void assigned(Buffer buff, Block oldblk) {
+      boolean wasUnpinned = unpinned.remove(buff);
+      History h = histories.get(buff);
+      if (oldblk != null)
+         retained.put(oldblk, h.times);
+      long[] times = retained.remove(buff.block());
+      h.times = (times != null) ? times : new long[K];
+      if (wasUnpinned)
+         unpinned.add(buff);
+   }
+   
+   /**
+    * Erases the history of the buffer's block,
+    * so that the block looks as if it had never been pinned.
+    */
+   public void demote(Buffer buff) {
+      boolean wasUnpinned = unpinned.remove(buff);
+      histories.get(buff).times = new long[K];
+      if (wasUnpinned)
+         unpinned.add(buff);
+   }
+   
+   public Buffer chooseVictim(Set<Buffer> excluded) {
+      for (Buffer buff : unpinned)
+         if (!buff.isPinned() && !excluded.contains(buff))
+            return buff;
+      return null;
+   }
+   
+   public List<Buffer> nextVictims(int n) {
+      List<Buffer> victims = new ArrayList<Buffer>();
+      for (Buffer buff : unpinned) {
+         if (victims.size() >= n)
+            break;
+         if (!buff.isPinned())
+            victims.add(buff);
+      }
+      return victims;
+   }
+   
+   /**
+    * The pin history of a buffer's block.
+    * Histories are ordered by their K-th most recent pin,
+    * then by their most recent pin, and then by the
+    * id of the buffer, so that no two buffers compare equal.
+    */
+   private static class History implements Comparable<History> {
+      long[] times = new long[K];
+      int id;
+      
+      History(int id) {
+         this.id = id;
+      }
+      
+      public int compareTo(History h) {
+         if (times[K-1] != h.times[K-1])
+            return (times[K-1] < h.times[K-1]) ? -1 : 1;
+         if (times[0] != h.times[0])
+            return (times[0] < h.times[0]) ? -1 : 1;
+         return id - h.id;
+      }
+   }
+}
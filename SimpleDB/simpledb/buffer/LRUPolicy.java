@@ -0,0 +1,75 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The LRU replacement policy.
+ * The unpinned buffers are kept in the order in which
+ * they became unpinned, and the buffer at the head of that list,
+ * which has been unpinned the longest, is replaced first.
+ * A prefetched buffer goes to the tail of the list.
+ * Demoted buffers are kept in a separate list,
+ * and are replaced before any other.
+ * @author Edward Sciore
+ */
+class LRUPolicy implements ReplacementPolicy {
+   private Set<Buffer> unpinned = new LinkedHashSet<Buffer>();
+   private Set<Buffer> demoted = new LinkedHashSet<Buffer>();
+   
+   public void add(Buffer buff) {
+      unpinned.add(buff);
+   }
+   
+   public void remove(Buffer buff) {
+      unpinned.remove(buff);
+      demoted.remove(buff);
+   }
+   
+   public void pinned(Buffer buff) {
+      unpinned.remove(buff);
+      demoted.remove(buff);
+   }
+   
+   public void unpinned(Buffer buff) {
+      if (!demoted.contains(buff))
+         unpinned.add(buff);
+   }
+   
+   public void assigned(Buffer buff, Block oldblk) {
+      demoted.remove(buff);
+      if (unpinned.remove(buff))
+         unpinned.add(buff);
+   }
+   
+   public void demote(Buffer buff) {
+      if (unpinned.remove(buff))
+         demoted.add(buff);
+   }
+   
+   public Buffer chooseVictim(Set<Buffer> excluded) {
+      for (Buffer buff : demoted)
+         if (!buff.isPinned() && !excluded.contains(buff))
+            return buff;
+      for (Buffer buff : unpinned)
+         if (!buff.isPinned() && !excluded.contains(buff))
+            return buff;
+      return null;
+   }
+   
+   public List<Buffer> nextVictims(int n) {
+      List<Buffer> victims = new ArrayList<Buffer>();
+      addUnpinned(victims, demoted, n);
+      addUnpinned(victims, unpinned, n);
+      return victims;
+   }
+   
+   private void addUnpinned(List<Buffer> victims, Set<Buffer> buffs, int n) {
+      for (Buffer buff : buffs) {
+         if (victims.size() >= n)
+            return;
+         if (!buff.isPinned())
+            victims.add(buff);
+      }
+   }
+}
@@ -0,0 +1,144 @@
+package simpledb.buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A shared/exclusive latch that protects the page of a buffer.
+ * A latch is held only for the duration of a single operation
+ * on the page, unlike a lock, which is held until the
+ * transaction completes.
+ * Like the lock table, the latch encodes its state as an integer:
+ * a positive value is the number of shared holders,
+ * and -1 denotes an exclusive holder.
+ * The state is changed by compare-and-set, and so an uncontended
+ * latch costs a single atomic instruction to acquire.
+ * Since transaction locks already keep conflicting operations
+ * off the same block, the latch is rarely contended,
+ * and a thread that finds it held first yields a few times.
+ * A holder may do I/O, however (an update appends to the log
+ * under the latch), and so a thread that still cannot acquire
+ * the latch waits on its monitor until a release wakes it.
+ * A release notifies the monitor only if a thread waits there.
+ * <p>
+ * Writers are preferred: while a thread waits for the latch
+ * in exclusive mode, no new shared holders are admitted,
+ * so that a steady stream of readers cannot starve a writer.
+ * A thread that holds the latch in shared mode must therefore
+ * not acquire it again, and a thread that holds two latches
+ * must acquire them in a fixed order.
+ * The latch is not reentrant.
+ * @author Edward Sciore
+ */
+class Latch {
+   private AtomicInteger state = new AtomicInteger(0);
+   private AtomicInteger waitingWriters = new AtomicInteger(0);
+   private volatile int sleepers = 0;
+
+   /**
+    * The number of times a thread yields before it waits
+    * on the monitor for the latch to be released.
+    */
+   static final int SPINS = 100;
+
+   /**
+    * Acquires the latch in shared mode,
+    * once no writer holds it or waits for it.
+    */
+   void sLatch() {
+      boolean interrupted = false;
+      for (int i=0; ; i++) {
+         int val = state.get();
+         if (val >= 0 && waitingWriters.get() == 0) {
+            if (state.compareAndSet(val, val+1))
+               break;
+         }
+         else if (i < SPINS)
+            Thread.yield();
+         else
+            interrupted |= sleep(false);
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+
+   /**
+    * Releases a shared hold on the latch.
+    */
+   void sUnlatch() {
+      if (state.decrementAndGet() == 0)
+         wakeUp();
+   }
+
+   /**
+    * Acquires the latch in exclusive mode.
+    * A thread that cannot acquire it at once announces itself
+    * as a waiting writer, which holds off new shared holders.
+    */
+   void xLatch() {
+      if (state.compareAndSet(0, -1))
+         return;
+      boolean interrupted = false;
+      waitingWriters.incrementAndGet();
+      try {
+         for (int i=0; !state.compareAndSet(0, -1); i++) {
+            if (i < SPINS)
+               Thread.yield();
+            else
+               interrupted |= sleep(true);
+         }
+      }
+      finally {
+         waitingWriters.decrementAndGet();
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+
+   /**
+    * Releases an exclusive hold on the latch.
+    */
+   void xUnlatch() {
+      state.set(0);
+      wakeUp();
+   }
+
+   /**
+    * Waits on the monitor until a release wakes the thread,
+    * unless the latch can already be acquired in the specified mode.
+    * The thread is counted as a sleeper before it checks the latch,
+    * and a release changes the latch before it checks for sleepers,
+    * so a release cannot be missed.
+    * An interrupt ends the wait, and is reported to the caller,
+    * which restores it once the latch is acquired.
+    * @param exclusive true if the thread waits for exclusive mode
+    * @return true if the thread was interrupted
+    */
+   private synchronized boolean sleep(boolean exclusive) {
+      sleepers++;
+      try {
+         int val = state.get();
+         boolean free = exclusive ? val == 0
+                                  : val >= 0 && waitingWriters.get() == 0;
+         if (!free)
+            wait();
+         return false;
+      }
+      catch (InterruptedException e) {
+         return true;
+      }
+      finally {
+         sleepers--;
+      }
+   }
+
+   /**
+    * Wakes the threads that wait on the monitor, if there are any.
+    */
+   private void wakeUp() {
+      if (sleepers > 0) {
+         synchronized (this) {
+            notifyAll();
+         }
+      }
+   }
+}
@@ -0,0 +1,135 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A background thread that writes dirty buffers
+ * before they are chosen for replacement,
+ * so that a pin that misses rarely has to write a page
+ * before it can read its own.
+ * <p>
+ * In each round, the cleaner visits each shard
+ * of the buffer pool and looks at the buffers that the shard's
+ * replacement policy will replace next, as many as the target
+ * fraction of its unpinned buffers.
+ * The dirty ones among them are pinned, so that they cannot be
+ * reassigned while they are written, and are then flushed
+ * in LSN order; each flush writes the log up to the page's LSN
+ * before it writes the page.
+ * The cleaner runs a new round as soon as the previous one
+ * has written pages; when a round finds nothing to write,
+ * the cleaner sleeps for {@link #INTERVAL} milliseconds, or until
+ * a shard {@link #wakeup() wakes} it because a pin had to
+ * write the buffer that it replaced.
+ * The number of pages written per second is limited,
+ * so that the cleaner does not flood the disk:
+ * after each round, the cleaner sleeps for as long as
+ * its pages should take at that rate.
+ * @author Edward Sciore
+ */
+class PageCleaner extends Thread {
+   /**
+    * The time between rounds of the cleaner, in milliseconds.
+    */
+   static final long INTERVAL = 50;
+   
+   private BufferMgr bufferMgr;
+   private BasicBufferMgr[] shards;
+   private double target;
+   private int rate;
+   private int writesPerRound;
+   private volatile boolean stopped = false;
+   
+   /**
+    * Creates a cleaner for the specified shards.
+    * @param bufferMgr the buffer manager that owns the shards
+    * @param shards the shards
+    * @param target the fraction of unpinned buffers to keep clean
+    * @param rate the maximum number of pages written per second
+    */
+   PageCleaner(BufferMgr bufferMgr, BasicBufferMgr[] shards, double target, int rate) {
+      super("page cleaner");
+      this.bufferMgr = bufferMgr;
+      this.shards = shards;
+      this.target = target;
+      this.rate = rate;
+      this.writesPerRound = (int) Math.max(1, rate * INTERVAL / 1000);
+      setDaemon(true);
+   }
+   
+   /**
+    * Runs rounds of cleaning until the cleaner is stopped.
+    * A round that fails, such as when a page cannot be written,
+    * is recorded by the buffer manager;
+    * the cleaner then sleeps for {@link #INTERVAL} milliseconds
+    * before it tries again, so that a persistent failure
+    * does not keep it busy.
+    */
+   public void run() {
+      while (!stopped) {
+         try {
+            int written = 0;
+            for (BasicBufferMgr shard : shards)
+               written += clean(shard, writesPerRound - written);
+            if (written == 0)
+               LockSupport.parkNanos(INTERVAL * 1000000L);
+            else {
+               long nanos = written * 1000000000L / rate;
+               Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+            }
+         }
+         catch(InterruptedException e) {}
+         catch(RuntimeException e) {
+            bufferMgr.cleanerFailed(e);
+            try {
+               Thread.sleep(INTERVAL);
+            }
+            catch(InterruptedException ie) {}
+         }
+      }
+   }
+   
+   /**
+    * Wakes the cleaner if it is sleeping for lack of work.
+    * A sleep that paces the cleaner's writes is not cut short.
+    */
+   void wakeup() {
+      LockSupport.unpark(this);
+   }
+   
+   /**
+    * Stops the cleaner after its current round.
+    */
+   void shutdown() {
+      stopped = true;
+      interrupt();
+   }
+   
+   /**
+    * Writes the dirty buffers that the shard will replace next.
+    * @param shard the shard
+    * @param max the maximum number of buffers to write
+    * @return the number of buffers written
+    */
+   private int clean(BasicBufferMgr shard, int max) {
+      if (max <= 0)
+         return 0;
+      List<Buffer> dirty = shard.pinDirtyVictims(target, max);
+      Collections.sort(dirty, new Comparator<Buffer>() {
+         public int compare(Buffer b1, Buffer b2) {
+            long lsn1 = b1.logSequenceNumber(), lsn2 = b2.logSequenceNumber();
+            return (lsn1 < lsn2) ? -1 : (lsn1 == lsn2) ? 0 : 1;
+         }
+      });
+      for (Buffer buff : dirty) {
+         try {
+            buff.flush();
+         }
+         finally {
+            bufferMgr.unpin(buff);
+         }
+      }
+      return dirty.size();
+   }
+}
@@ -0,0 +1,127 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detects sequential access to files, and
+ * determines which blocks should be read ahead.
+ * The object remembers the most recently pinned block of each file.
+ * A pin of the block after it (or before it, for a backward scan)
+ * extends the file's run of sequential pins;
+ * a pin of any other block ends the run.
+ * Once a run is {@link #MIN_RUN} pins long, the next blocks
+ * in the direction of the run are read ahead,
+ * a window of blocks at a time, so that the blocks of a window
+ * are read by a single vectored read.
+ * The next window is requested when the run comes within
+ * half a window (but at least one block) of the end of
+ * what has been read, so that its read overlaps the
+ * processing of the rest.
+ * <p>
+ * The runs of at most {@link #MAX_FILES} files are remembered;
+ * when there are more, all runs are forgotten, which
+ * keeps the many short-lived temporary files from accumulating.
+ * @author Edward Sciore
+ */
+class ReadAhead {
+   /**
+    * The number of sequential pins of a file
+    * that start the read-ahead.
+    */
+   static final int MIN_RUN = 3;
+   
+   /**
+    * The maximum number of files whose runs are remembered.
+    */
+   static final int MAX_FILES = 1000;
+   
+   private int window;
+   private int trigger;
+   private Map<String,Run> runs = new ConcurrentHashMap<String,Run>();
+   
+   /**
+    * Creates an object that reads ahead the specified
+    * number of blocks at a time.
+    * @param window the number of blocks in a read-ahead window
+    */
+   ReadAhead(int window) {
+      this.window = window;
+      this.trigger = Math.max(1, window / 2);
+   }
+   
+   /**
+    * Records a pin of the specified block, and returns
+    * the blocks that should now be read ahead.
+    * @param blk the pinned block
+    * @return the blocks to read ahead, or null if there are none
+    */
+   Block[] pinned(Block blk) {
+      String filename = blk.fileName();
+      Run run = runs.get(filename);
+      if (run == null) {
+         if (runs.size() >= MAX_FILES)
+            runs.clear();
+         run = new Run();
+         runs.put(filename, run);
+      }
+      synchronized (run) {
+         int blknum = blk.number();
+         if (!run.extend(blknum) || run.length < MIN_RUN)
+            return null;
+         if (Math.abs(run.readTo - blknum) > trigger)
+            return null;
+         int start, end;
+         if (run.direction > 0) {
+            start = Math.max(run.readTo, blknum) + 1;
+            end = Math.min(start + window, SimpleDB.fileMgr().size(filename)) - 1;
+         }
+         else {
+            end = Math.min(run.readTo, blknum) - 1;
+            start = Math.max(end - window + 1, 0);
+         }
+         if (end < start)
+            return null;
+         run.readTo = (run.direction > 0) ? end : start;
+         Block[] blks = new Block[end - start + 1];
+         for (int i=start; i<=end; i++)
+            blks[i - start] = new Block(filename, i);
+         return blks;
+      }
+   }
+   
+   /**
+    * The run of sequential pins of a file.
+    */
+   private static class Run {
+      int last = -1;
+      int direction = 0;
+      int length = 0;
+      int readTo;
+      
+      /**
+       * Records a pin of the specified block of the file.
+       * A repeated pin of the last block leaves the run unchanged.
+       * Nothing has been read ahead for a run that has just begun.
+       * @param blknum the number of the pinned block
+       * @return false if the pin is a repeat of the last one
+       */
+      boolean extend(int blknum) {
+         if (blknum == last)
+            return false;
+         int step = blknum - last;
+         boolean adjacent = (last >= 0) && (step == 1 || step == -1);
+         if (adjacent && (length == 1 || step == direction))
+            length++;
+         else
+            length = 1;
+         if (length <= 2)
+            readTo = blknum;
+         direction = step;
+         last = blknum;
+         return true;
+      }
+   }
+}
@@ -0,0 +1,113 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The strategy that the buffer manager uses to choose
+ * which unpinned buffer to replace.
+ * The buffer manager tells the policy about each pin,
+ * each buffer that becomes unpinned, and each buffer that
+ * is assigned to a new block; the policy uses those events
+ * to order the unpinned buffers for replacement.
+ * The set of buffers that a policy manages can change:
+ * a buffer may be added to it or removed from it at any time
+ * while the buffer is unpinned.
+ * All methods are called while the buffer manager's lock is held,
+ * and so implementations need not be thread-safe.
+ * <p>
+ * A policy is selected by name when the buffer manager is created;
+ * see {@link #LRU}, {@link #CLOCK}, {@link #LRU_K} and {@link #TWO_Q}.
+ * @author Edward Sciore
+ */
+interface ReplacementPolicy {
+   /**
+    * The name of the policy that replaces the buffer that
+    * has been unpinned the longest.
+    */
+   static final String LRU = "lru";
+   
+   /**
+    * The name of the clock (second-chance) policy.
+    */
+   static final String CLOCK = "clock";
+   
+   /**
+    * The name of the LRU-2 policy, which replaces the buffer whose
+    * second-most-recent pin is the oldest.
+    */
+   static final String LRU_K = "lru-k";
+   
+   /**
+    * The name of the 2Q policy, which keeps blocks that have been
+    * pinned only once apart from those that have been pinned again.
+    */
+   static final String TWO_Q = "2q";
+   
+   /**
+    * Adds the buffer to the ones managed by the policy.
+    * The buffer is unpinned.
+    * @param buff the new buffer
+    */
+   void add(Buffer buff);
+   
+   /**
+    * Removes the buffer from the ones managed by the policy.
+    * The buffer is unpinned, and its block is no longer in the pool.
+    * @param buff the buffer to remove
+    */
+   void remove(Buffer buff);
+   
+   /**
+    * Records that the buffer has been pinned.
+    * The method is called for every pin, including the first one
+    * after the buffer is assigned to a block.
+    * @param buff the pinned buffer
+    */
+   void pinned(Buffer buff);
+   
+   /**
+    * Records that the buffer is no longer pinned,
+    * and so is a candidate for replacement.
+    * @param buff the unpinned buffer
+    */
+   void unpinned(Buffer buff);
+   
+   /**
+    * Records that the buffer has been assigned to a new block.
+    * The buffer's previous block, if any, is no longer in the pool.
+    * The buffer may be unpinned, if its block was prefetched.
+    * @param buff the buffer
+    * @param oldblk the buffer's previous block, or null
+    */
+   void assigned(Buffer buff, Block oldblk);
+   
+   /**
+    * Records that the unpinned buffer holds a block that is unlikely
+    * to be used again, such as a page of a large scan,
+    * and so should be replaced soon.
+    * @param buff the buffer
+    */
+   void demote(Buffer buff);
+   
+   /**
+    * Chooses an unpinned buffer to replace.
+    * A buffer that the policy considers unpinned may have been
+    * pinned by the page cleaner without the policy being told,
+    * and so the policy must check that its choice is unpinned.
+    * @param excluded buffers that must not be chosen
+    * @return the chosen buffer, or null if every buffer is pinned or excluded
+    */
+   Buffer chooseVictim(Set<Buffer> excluded);
+   
+   /**
+    * Returns unpinned buffers in the order in which
+    * the policy expects to replace them, without
+    * changing the state of the policy.
+    * The page cleaner uses the method to find the dirty
+    * buffers that are about to be replaced.
+    * @param n the maximum number of buffers to return
+    * @return the next buffers to be replaced
+    */
+   List<Buffer> nextVictims(int n);
+}
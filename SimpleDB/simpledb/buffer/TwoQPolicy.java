@@ -0,0 +1,125 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The 2Q replacement policy.
+ * A block that enters the pool goes into a FIFO queue, A1in.
+ * If it is replaced from there, its identity is remembered in
+ * a second FIFO queue, A1out, which holds no pages.
+ * A block that is read back while it is remembered in A1out
+ * has proven to be hot, and goes into an LRU list, Am.
+ * Victims come from A1in while it holds more than
+ * a quarter of the buffers, and from Am otherwise;
+ * thus a scan that touches each block once passes through A1in
+ * without disturbing the hot blocks in Am.
+ * A1out remembers as many blocks as half the buffers.
+ * <p>
+ * Buffers that have not yet been assigned to a block,
+ * and demoted buffers, are replaced before any other.
+ * A demoted block does not go to A1out when it is replaced.
+ * @author Edward Sciore
+ */
+class TwoQPolicy implements ReplacementPolicy {
+   private Set<Buffer> unused = new LinkedHashSet<Buffer>();
+   private Set<Buffer> a1in = new LinkedHashSet<Buffer>();
+   private Set<Buffer> am = new LinkedHashSet<Buffer>();
+   private Set<Block> a1out = new LinkedHashSet<Block>();
+   private int numbuffs = 0;
+   
+   /**
+    * Adds the buffer to the buffers to be replaced first,
+    * since its page is of no use to the policy's pool.
+    */
+   public void add(Buffer buff) {
+      unused.add(buff);
+      numbuffs++;
+   }
+   
+   public void remove(Buffer buff) {
+      if (!unused.remove(buff) && !a1in.remove(buff))
+         am.remove(buff);
+      numbuffs--;
+   }
+   
+   /**
+    * Moves a buffer in Am to the tail of the list.
+    * A pin of a buffer in A1in does not change its position,
+    * and a demoted buffer that is pinned again goes to A1in.
+    */
+   public void pinned(Buffer buff) {
+      if (am.remove(buff))
+         am.add(buff);
+      else if (unused.remove(buff))
+         a1in.add(buff);
+   }
+   
+   public void unpinned(Buffer buff) {}
+   
+   public void assigned(Buffer buff, Block oldblk) {
+      unused.remove(buff);
+      am.remove(buff);
+      if (a1in.remove(buff) && oldblk != null) {
+         a1out.add(oldblk);
+         if (a1out.size() > Math.max(1, numbuffs / 2)) {
+            Iterator<Block> iter = a1out.iterator();
+            iter.next();
+            iter.remove();
+         }
+      }
+      if (a1out.remove(buff.block()))
+         am.add(buff);
+      else
+         a1in.add(buff);
+   }
+   
+   public void demote(Buffer buff) {
+      if (a1in.remove(buff) || am.remove(buff))
+         unused.add(buff);
+   }
+   
+   public Buffer chooseVictim(Set<Buffer> excluded) {
+      Buffer buff = firstUnpinned(unused, excluded);
+      if (buff != null)
+         return buff;
+      if (a1in.size() > Math.max(1, numbuffs / 4)) {
+         buff = firstUnpinned(a1in, excluded);
+         return (buff != null) ? buff : firstUnpinned(am, excluded);
+      }
+      else {
+         buff = firstUnpinned(am, excluded);
+         return (buff != null) ? buff : firstUnpinned(a1in, excluded);
+      }
+   }
+   
+   /**
+    * Returns the unused buffers, followed by the buffers
+    * of the queue that victims currently come from,
+    * followed by those of the other queue.
+    */
+   public List<Buffer> nextVictims(int n) {
+      List<Buffer> victims = new ArrayList<Buffer>();
+      boolean a1infirst = a1in.size() > Math.max(1, numbuffs / 4);
+      addUnpinned(victims, unused, n);
+      addUnpinned(victims, a1infirst ? a1in : am, n);
+      addUnpinned(victims, a1infirst ? am : a1in, n);
+      return victims;
+   }
+   
+   private void addUnpinned(List<Buffer> victims, Set<Buffer> buffs, int n) {
+      for (Buffer buff : buffs) {
+         if (victims.size() >= n)
+            return;
+         if (!buff.isPinned())
+            victims.add(buff);
+      }
+   }
+   
+   private Buffer firstUnpinned(Set<Buffer> buffs, Set<Buffer> excluded) {
+      for (Buffer buff : buffs)
+         if (!buff.isPinned() && !excluded.contains(buff))
+            return buff;
+      return null;
+   }
+}
@@ -48,6 +48,6 @@ public class Block {
    }
    
    public int hashCode() {
-      return toString().hashCode();
+      return filename.hashCode() * 31 + blknum;
    }
 }
@@ -0,0 +1,404 @@
+package simpledb.file;
+
+import static simpledb.file.FileMgr.MAP_REGION_BLOCKS;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import static simpledb.file.FileMgr.EXTENT_BLOCKS;
+
+/**
+ * An open database file.
+ * The object wraps the file's channel, together with
+ * its memory-mapped regions (if the file is mapped).
+ * Reads and writes use positional I/O, and so
+ * they may execute concurrently on different blocks.
+ * Appends and the mapping of new regions are
+ * serialized on the object itself.
+ * <p>
+ * The object keeps the number of blocks in the file in memory,
+ * so that determining the size of the file needs no system call.
+ * The file grows in extents of {@link FileMgr#EXTENT_BLOCKS} blocks,
+ * which are preallocated by writing zeros;
+ * the file's logical end of file is therefore recorded separately,
+ * in an end-of-file file whose name is the filename
+ * followed by {@link #EOF_SUFFIX}.
+ * That file holds a single integer, and is written when
+ * the file is forced.
+ * A file without an end-of-file file was never preallocated,
+ * and so its logical size is its physical size.
+ * <p>
+ * Writes are not synchronous.
+ * The object counts its writes, and remembers how many
+ * of them were covered by the most recent force;
+ * a thread that wants its writes forced can thus skip the force
+ * if another thread has already forced past them.
+ * Objects of this class are created and used
+ * exclusively by the {@link FileMgr file manager}.
+ * @author Edward Sciore
+ */
+class DbFile {
+   /**
+    * The suffix of the name of a file's end-of-file file.
+    */
+   static final String EOF_SUFFIX = ".eof";
+
+   private String filename;
+   private File eoffile;
+   private FileChannel fc;
+   private int blocksize;
+   private boolean mapped;
+   private List<MappedByteBuffer> regions = new CopyOnWriteArrayList<MappedByteBuffer>();
+   private AtomicLong writeCount = new AtomicLong(0);
+   private volatile long forcedCount = 0;
+   private volatile boolean extended = false;
+   private volatile int numblocks;
+   private volatile int writtenblocks;
+   private int pendingWrites = 0;
+   private int allocated;
+   private volatile int recordedblocks;
+   private Object forceLock = new Object();
+   private Object positionLock = new Object();
+
+   /**
+    * Opens the specified file.
+    * The file is opened in "rw" mode, and so its writes
+    * are made durable only by {@link #force()}.
+    * The logical size of the file is read from its end-of-file file,
+    * if it has one.
+    * @param f the file
+    * @param blocksize the size of each block of the file
+    * @param mapped true if the file should be memory-mapped
+    * @throws IOException
+    */
+   DbFile(File f, int blocksize, boolean mapped) throws IOException {
+      this.filename = f.getName();
+      this.blocksize = blocksize;
+      this.mapped = mapped;
+      RandomAccessFile raf = new RandomAccessFile(f, "rw");
+      fc = raf.getChannel();
+      eoffile = new File(f.getParentFile(), filename + EOF_SUFFIX);
+      allocated = (int)(fc.size() / blocksize);
+      numblocks = allocated;
+      if (eoffile.exists()) {
+         RandomAccessFile eof = new RandomAccessFile(eoffile, "r");
+         try {
+            if (eof.length() >= Page.INT_SIZE)
+               numblocks = Math.min(eof.readInt(), allocated);
+         }
+         finally {
+            eof.close();
+         }
+      }
+      writtenblocks = numblocks;
+      recordedblocks = eoffile.exists() ? numblocks : -1;
+   }
+
+   /**
+    * Reads the contents of the specified block into a bytebuffer.
+    * @param blknum the block number
+    * @param bb  the bytebuffer
+    * @throws IOException
+    */
+   void read(int blknum, ByteBuffer bb) throws IOException {
+      bb.clear();
+      ByteBuffer region = mappedBlock(blknum);
+      if (region != null)
+         bb.put(region);
+      else
+         fc.read(bb, (long) blknum * blocksize);
+   }
+
+   /**
+    * Reads the contents of consecutive blocks into the
+    * specified bytebuffers, one block per bytebuffer.
+    * The blocks are read by a single scattering read
+    * of the channel, which requires the channel's position;
+    * scattering reads of the same file are therefore serialized.
+    * Blocks in a mapped region are simply copied.
+    * @param startblk the number of the first block
+    * @param bbs  the bytebuffers
+    * @throws IOException
+    */
+   void read(int startblk, ByteBuffer[] bbs) throws IOException {
+      if (mapped) {
+         for (int i=0; i<bbs.length; i++)
+            read(startblk + i, bbs[i]);
+         return;
+      }
+      for (ByteBuffer bb : bbs)
+         bb.clear();
+      synchronized (positionLock) {
+         fc.position((long) startblk * blocksize);
+         long remaining = (long) bbs.length * blocksize;
+         while (remaining > 0) {
+            long n = fc.read(bbs);
+            if (n < 0)
+               break;
+            remaining -= n;
+         }
+      }
+   }
+
+   /**
+    * Writes the contents of a bytebuffer into the specified block.
+    * @param blknum the block number
+    * @param bb  the bytebuffer
+    * @throws IOException
+    */
+   void write(int blknum, ByteBuffer bb) throws IOException {
+      bb.rewind();
+      ByteBuffer region = mappedBlock(blknum);
+      if (region != null)
+         region.put(bb);
+      else
+         fc.write(bb, (long) blknum * blocksize);
+      writeCount.incrementAndGet();
+   }
+
+   /**
+    * Writes the contents of the specified bytebuffers into
+    * consecutive blocks, one block per bytebuffer.
+    * The blocks may extend past the end of the file,
+    * which then grows to hold them, as it does for an append;
+    * the first block must not lie beyond the end of the file.
+    * The blocks are written by a single gathering write
+    * of the channel, which requires the channel's position;
+    * it is therefore serialized with scattering reads of the file.
+    * Blocks in a mapped region are simply copied.
+    * @param startblk the number of the first block
+    * @param bbs  the bytebuffers
+    * @throws IOException
+    */
+   void write(int startblk, ByteBuffer[] bbs) throws IOException {
+      boolean growing = startblk + bbs.length > numblocks;
+      if (growing)
+         grow(startblk, startblk + bbs.length);
+      try {
+         if (mapped) {
+            for (int i=0; i<bbs.length; i++)
+               write(startblk + i, bbs[i]);
+            return;
+         }
+         for (ByteBuffer bb : bbs)
+            bb.rewind();
+         synchronized (positionLock) {
+            fc.position((long) startblk * blocksize);
+            long remaining = (long) bbs.length * blocksize;
+            while (remaining > 0)
+               remaining -= fc.write(bbs);
+         }
+         writeCount.incrementAndGet();
+      }
+      finally {
+         if (growing)
+            grown();
+      }
+   }
+
+   /**
+    * Appends the contents of a bytebuffer to the end of the file.
+    * Concurrent appends to the same file are serialized,
+    * so that each one gets its own block.
+    * If the file has no preallocated blocks left,
+    * then it is first extended by another extent.
+    * The new block is counted before it is written,
+    * but it is not recorded by a force until its write
+    * and those of any blocks before it have returned.
+    * @param bb  the bytebuffer
+    * @return the number of the newly-created block
+    * @throws IOException
+    */
+   synchronized int append(ByteBuffer bb) throws IOException {
+      int newblknum = numblocks;
+      if (newblknum >= allocated)
+         extend();
+      numblocks = newblknum + 1;
+      write(newblknum, bb);
+      if (pendingWrites == 0)
+         writtenblocks = numblocks;
+      return newblknum;
+   }
+
+   /**
+    * Increases the logical size of the file to the specified number
+    * of blocks, extending the file as needed, so that blocks
+    * starting at the specified block can be written.
+    * As with an append, the blocks are counted before they are written;
+    * the write is pending until {@link #grown()} is called.
+    * @param startblk the number of the first block to be written
+    * @param newsize the new number of blocks in the file
+    * @throws IOException
+    */
+   private synchronized void grow(int startblk, int newsize) throws IOException {
+      if (startblk > numblocks)
+         throw new IOException("cannot write past the end of " + filename);
+      while (newsize > allocated)
+         extend();
+      if (newsize > numblocks)
+         numblocks = newsize;
+      pendingWrites++;
+   }
+
+   /**
+    * Ends a write that grew the file.
+    * Once no such write is pending, every counted block
+    * has been written, and a force may record them all.
+    */
+   private synchronized void grown() {
+      pendingWrites--;
+      if (pendingWrites == 0)
+         writtenblocks = numblocks;
+   }
+
+   /**
+    * Returns the logical number of blocks in the file.
+    * @return the number of blocks in the file
+    */
+   int size() {
+      return numblocks;
+   }
+
+   /**
+    * Forces the writes that completed before the call to disk.
+    * The file's metadata is also forced if the file
+    * has been extended since the last force,
+    * and its logical size is recorded if it has changed.
+    * The recorded size is the number of blocks whose writes
+    * have returned, read before the file is forced;
+    * a block that is counted but still being written,
+    * such as one appended during the force,
+    * is not recorded until a later force makes its write durable.
+    * The extension flag is read after the size, so that
+    * the extents holding the recorded blocks are forced too.
+    * Forces are serialized; a thread that finds that
+    * the previous force already covered its writes returns
+    * without forcing the file again.
+    * @throws IOException
+    */
+   void force() throws IOException {
+      long target = writeCount.get();
+      if (forcedCount >= target)
+         return;
+      synchronized (forceLock) {
+         if (forcedCount >= target)
+            return;
+         long count = writeCount.get();
+         int size = writtenblocks;
+         boolean metadata = extended;
+         extended = false;
+         for (MappedByteBuffer region : regions)
+            region.force();
+         fc.force(metadata);
+         if (recordedblocks >= 0 && recordedblocks != size)
+            recordSize(size);
+         forcedCount = count;
+      }
+   }
+
+   /**
+    * Returns true if the file has writes that have not been forced.
+    * @return true if the file needs to be forced
+    */
+   boolean isUnforced() {
+      return writeCount.get() > forcedCount;
+   }
+
+   /**
+    * Closes the file.
+    * @throws IOException
+    */
+   void close() throws IOException {
+      fc.close();
+   }
+
+   /**
+    * Extends the file by an extent of zeroed blocks.
+    * Before a file is preallocated for the first time,
+    * the number of its written blocks is recorded durably
+    * in its end-of-file file,
+    * so that the preallocated blocks are never mistaken for data.
+    * Temporary files do not survive a restart,
+    * and so their size is never recorded.
+    * @throws IOException
+    */
+   private void extend() throws IOException {
+      if (recordedblocks < 0 && !filename.startsWith("temp"))
+         recordSize(writtenblocks);
+      ByteBuffer zeros = ByteBuffer.allocate(EXTENT_BLOCKS * blocksize);
+      long pos = (long) allocated * blocksize;
+      while (zeros.hasRemaining())
+         pos += fc.write(zeros, pos);
+      allocated += EXTENT_BLOCKS;
+      extended = true;
+   }
+
+   /**
+    * Durably writes the specified logical size
+    * to the file's end-of-file file.
+    * @param size the number of blocks in the file
+    * @throws IOException
+    */
+   private synchronized void recordSize(int size) throws IOException {
+      RandomAccessFile eof = new RandomAccessFile(eoffile, "rws");
+      try {
+         eof.writeInt(size);
+      }
+      finally {
+         eof.close();
+      }
+      recordedblocks = size;
+   }
+
+   /**
+    * Returns the name of the file.
+    * @return the filename
+    */
+   String fileName() {
+      return filename;
+   }
+
+   /**
+    * Returns a view of the specified block within the
+    * memory-mapped region that contains it.
+    * Any regions that now lie entirely within the file are mapped as needed.
+    * The method returns null if the file is not mapped
+    * or if the block's region extends past the end of the file.
+    * @param blknum the block number
+    * @return a view of the block's bytes, or null
+    * @throws IOException
+    */
+   private ByteBuffer mappedBlock(int blknum) throws IOException {
+      if (!mapped)
+         return null;
+      int regionnum = blknum / MAP_REGION_BLOCKS;
+      if (regions.size() <= regionnum && !mapRegions(regionnum))
+         return null;
+      ByteBuffer region = regions.get(regionnum).duplicate();
+      int pos = (blknum % MAP_REGION_BLOCKS) * blocksize;
+      region.limit(pos + blocksize);
+      region.position(pos);
+      return region;
+   }
+
+   /**
+    * Maps the regions of the file up to the specified one,
+    * provided that they lie entirely within the file.
+    * @param regionnum the number of the needed region
+    * @return true if the needed region is mapped
+    * @throws IOException
+    */
+   private synchronized boolean mapRegions(int regionnum) throws IOException {
+      long regionsize = (long) MAP_REGION_BLOCKS * blocksize;
+      while (regions.size() <= regionnum) {
+         long start = regions.size() * regionsize;
+         if (fc.size() < start + regionsize)
+            return false;
+         regions.add(fc.map(MapMode.READ_WRITE, start, regionsize));
+      }
+      return true;
+   }
+}
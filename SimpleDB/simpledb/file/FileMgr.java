@@ -1,10 +1,10 @@
 package simpledb.file;
 
-import static simpledb.file.Page.BLOCK_SIZE;
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * The SimpleDB file manager.
@@ -19,12 +19,101 @@ import java.util.*;
  * Method {@link #isNew() isNew} is called during system initialization by {@link simpledb.server.SimpleDB#init}.
  * Method {@link #size(String) size} is called by the log manager and transaction manager to
  * determine the end of the file.
+ * <p>
+ * The size of a block and the charset of its strings
+ * are fixed when the database is created.
+ * They are stored in the header file {@link #HEADER_FILE},
+ * and are read from there whenever the database is reopened;
+ * methods {@link #blockSize() blockSize} and {@link #charset() charset}
+ * return them.
+ * <p>
+ * The file manager has two storage modes.
+ * In the default mode, every block is read and written
+ * by a call to its file channel.
+ * In the memory-mapped mode, each file is mapped into memory
+ * in regions of {@link #MAP_REGION_BLOCKS} blocks,
+ * so that reading or writing a block is a memory copy.
+ * A region is mapped only once it lies entirely within the file;
+ * blocks at the tail of the file are still accessed via the channel.
+ * <p>
+ * In both modes, writes are not synchronous.
+ * A write is not durable until its file is forced,
+ * which is the job of the methods {@link #force(String) force}
+ * and {@link #forceAll() forceAll}.
+ * They are called only where write-ahead logging needs them:
+ * when the log is flushed, and before a commit, rollback
+ * or checkpoint record is written.
+ * Concurrent forces of the same file are coalesced,
+ * and a file is forced only if it has unforced writes.
+ * Temporary files are never forced.
+ * <p>
+ * The file manager is not a monitor.
+ * Each open file is represented by a {@link DbFile} object,
+ * whose reads and writes use positional I/O;
+ * thus blocks can be read and written concurrently,
+ * whether or not they are in the same file.
+ * Only appends to the same file are serialized.
+ * <p>
+ * The size of each open file is cached in memory.
+ * Files grow in preallocated extents of {@link #EXTENT_BLOCKS} blocks,
+ * and so the size of a file is its logical size,
+ * which is kept separately from the file itself.
+ * <p>
+ * A block can also be read asynchronously,
+ * by a pool of {@link #IO_THREADS} I/O threads;
+ * the caller receives a future that completes when the read does.
  * @author Edward Sciore
  */
 public class FileMgr {
+   /**
+    * The number of blocks in each memory-mapped region of a file.
+    */
+   public static final int MAP_REGION_BLOCKS = 1024;
+
+   /**
+    * The default number of bytes in a block.
+    * This value is set unreasonably low, so that it is easier
+    * to create and test databases having a lot of blocks.
+    * A more realistic value would be 4K.
+    */
+   public static final int DEFAULT_BLOCK_SIZE = 400;
+
+   /**
+    * The charset of the strings of a new database.
+    */
+   public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+   /**
+    * The name of the file that holds the database's block size
+    * and charset.
+    */
+   public static final String HEADER_FILE = "simpledb.hdr";
+
+   /**
+    * The number of threads that perform asynchronous reads.
+    */
+   public static final int IO_THREADS = 4;
+
+   /**
+    * The number of blocks by which a file grows when
+    * an append finds no preallocated block.
+    */
+   public static final int EXTENT_BLOCKS = 64;
+
    private File dbDirectory;
    private boolean isNew;
-   private Map<String,FileChannel> openFiles = new HashMap<String,FileChannel>();
+   private boolean mapped;
+   private int blocksize;
+   private Charset charset;
+   private int bytesPerChar;
+   private ConcurrentMap<String,DbFile> openFiles = new ConcurrentHashMap<String,DbFile>();
+   private ExecutorService ioThreads = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+         Thread t = new Thread(r, "simpledb-io");
+         t.setDaemon(true);
+         return t;
+      }
+   });
 
    /**
     * Creates a file manager for the specified database.
@@ -36,6 +125,26 @@ public class FileMgr {
     * @param dbname the name of the directory that holds the database
     */
    public FileMgr(String dbname) {
+      this(dbname, DEFAULT_BLOCK_SIZE, false);
+   }
+
+   /**
+    * Creates a file manager for the specified database,
+    * using the specified storage mode.
+    * If the database is new, its blocks will have the specified size,
+    * and its strings will be encoded in the {@link #DEFAULT_CHARSET default charset};
+    * otherwise, the block size and charset are read from the database's header file,
+    * and the specified size is ignored.
+    * A database that has no header file predates it, and so
+    * its block size is the default size.
+    * A database whose header file has no charset predates fixed charsets,
+    * and so its strings are encoded in the JVM's default charset.
+    * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size of a new database
+    * @param mapped true if the files should be memory-mapped
+    */
+   public FileMgr(String dbname, int blocksize, boolean mapped) {
+      this.mapped = mapped;
       String homedir = System.getProperty("user.home");
       dbDirectory = new File(homedir, dbname);
       isNew = !dbDirectory.exists();
@@ -48,6 +157,11 @@ public class FileMgr {
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
          new File(dbDirectory, filename).delete();
+
+      this.blocksize = isNew ? blocksize : DEFAULT_BLOCK_SIZE;
+      this.charset = isNew ? DEFAULT_CHARSET : Charset.defaultCharset();
+      readOrCreateHeader();
+      bytesPerChar = (int) charset.newEncoder().maxBytesPerChar();
    }
 
    /**
@@ -55,33 +169,100 @@ public class FileMgr {
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void read(Block blk, ByteBuffer bb) {
+   void read(Block blk, ByteBuffer bb) {
       try {
-         bb.clear();
-         FileChannel fc = getFile(blk.fileName());
-         fc.read(bb, blk.number() * BLOCK_SIZE);
+         getFile(blk.fileName()).read(blk.number(), bb);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
+   /**
+    * Reads the contents of consecutive blocks of a file
+    * into the specified bytebuffers, using a single system call.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks to read
+    * @param bbs  the bytebuffers, one per block
+    */
+   void readBlocks(String filename, int start, int count, ByteBuffer[] bbs) {
+      if (bbs.length != count)
+         throw new IllegalArgumentException("need one bytebuffer per block");
+      try {
+         getFile(filename).read(start, bbs);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read blocks " + start + " to "
+                                    + (start + count - 1) + " of " + filename);
+      }
+   }
+
+   /**
+    * Starts reading consecutive blocks of a file
+    * into the specified bytebuffers, and returns without
+    * waiting for the read to complete.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param bbs  the bytebuffers, one per block
+    * @return a future that completes when the read does
+    */
+   Future<?> readBlocksAsync(final String filename, final int start, final ByteBuffer[] bbs) {
+      return ioThreads.submit(new Runnable() {
+         public void run() {
+            readBlocks(filename, start, bbs.length, bbs);
+         }
+      });
+   }
+
+   /**
+    * Starts reading the contents of a disk block into a bytebuffer,
+    * and returns without waiting for the read to complete.
+    * The bytebuffer must not be used until the returned future is done.
+    * @param blk a reference to a disk block
+    * @param bb  the bytebuffer
+    * @return a future that completes when the read does
+    */
+   Future<?> readAsync(final Block blk, final ByteBuffer bb) {
+      return ioThreads.submit(new Runnable() {
+         public void run() {
+            read(blk, bb);
+         }
+      });
+   }
+
    /**
     * Writes the contents of a bytebuffer into a disk block.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void write(Block blk, ByteBuffer bb) {
+   void write(Block blk, ByteBuffer bb) {
       try {
-         bb.rewind();
-         FileChannel fc = getFile(blk.fileName());
-         fc.write(bb, blk.number() * BLOCK_SIZE);
+         getFile(blk.fileName()).write(blk.number(), bb);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
    }
 
+   /**
+    * Writes the contents of bytebuffers into consecutive blocks
+    * of a file, using a single system call.
+    * The blocks may extend past the end of the file.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param bbs  the bytebuffers, one per block
+    */
+   void writeBlocks(String filename, int start, ByteBuffer[] bbs) {
+      try {
+         getFile(filename).write(start, bbs);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write blocks " + start + " to "
+                                    + (start + bbs.length - 1) + " of " + filename);
+      }
+   }
+
    /**
     * Appends the contents of a bytebuffer to the end
     * of the specified file.
@@ -89,11 +270,14 @@ public class FileMgr {
     * @param bb  the bytebuffer
     * @return a reference to the newly-created block.
     */
-   synchronized Block append(String filename, ByteBuffer bb) {
-      int newblknum = size(filename);
-      Block blk = new Block(filename, newblknum);
-      write(blk, bb);
-      return blk;
+   Block append(String filename, ByteBuffer bb) {
+      try {
+         int newblknum = getFile(filename).append(bb);
+         return new Block(filename, newblknum);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot append to " + filename);
+      }
    }
 
    /**
@@ -101,16 +285,107 @@ public class FileMgr {
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
-   public synchronized int size(String filename) {
+   public int size(String filename) {
       try {
-         FileChannel fc = getFile(filename);
-         return (int)(fc.size() / BLOCK_SIZE);
+         return getFile(filename).size();
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
 
+   /**
+    * Forces the pending writes of the specified file to disk.
+    * If the file has grown since it was last forced,
+    * then its metadata is forced as well.
+    * If another thread is already forcing the file,
+    * then the method waits for it, and does not force the file
+    * again if that force covered this thread's writes.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
+      try {
+         getFile(filename).force();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot force " + filename);
+      }
+   }
+
+   /**
+    * Forces the pending writes of every file to disk,
+    * except for temporary files, which do not survive a restart.
+    * This method is called before a commit, rollback, or
+    * checkpoint record is written to the log.
+    */
+   public void forceAll() {
+      for (DbFile f : openFiles.values())
+         if (f.isUnforced() && !f.fileName().startsWith("temp"))
+            force(f.fileName());
+   }
+
+   /**
+    * Returns the names of the files in the database directory
+    * that begin with the specified prefix,
+    * such as the segments of the log.
+    * End-of-file files are omitted.
+    * @param prefix the beginning of the filenames
+    * @return the names of the files
+    */
+   public List<String> fileNames(String prefix) {
+      List<String> filenames = new ArrayList<String>();
+      for (String filename : dbDirectory.list())
+         if (filename.startsWith(prefix) && !filename.endsWith(DbFile.EOF_SUFFIX))
+            filenames.add(filename);
+      return filenames;
+   }
+
+   /**
+    * Deletes the specified file, together with its end-of-file file.
+    * The file is closed first if it is open.
+    * The file must no longer be read or written;
+    * the log manager calls this method for the segments
+    * of the log that are no longer needed.
+    * @param filename the name of the file
+    */
+   public void delete(String filename) {
+      DbFile f = openFiles.remove(filename);
+      try {
+         if (f != null)
+            f.close();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot close " + filename);
+      }
+      new File(dbDirectory, filename).delete();
+      new File(dbDirectory, filename + DbFile.EOF_SUFFIX).delete();
+   }
+
+   /**
+    * Returns the number of bytes in each block of the database.
+    * @return the block size
+    */
+   public int blockSize() {
+      return blocksize;
+   }
+
+   /**
+    * Returns the charset in which the database's strings are encoded.
+    * @return the charset
+    */
+   public Charset charset() {
+      return charset;
+   }
+
+   /**
+    * Returns the maximum number of bytes needed to encode
+    * a character in the database's charset.
+    * @return the maximum number of bytes per character
+    */
+   public int bytesPerChar() {
+      return bytesPerChar;
+   }
+
    /**
     * Returns a boolean indicating whether the file manager
     * had to create a new database directory.
@@ -121,22 +396,145 @@ public class FileMgr {
    }
 
    /**
-    * Returns the file channel for the specified filename.
-    * The file channel is stored in a map keyed on the filename.
-    * If the file is not open, then it is opened and the file channel
-    * is added to the map.
+    * Writes the specified list of blocks to the specified file,
+    * such as the list of blocks in the buffer pool.
+    * The list is written to a new file, which then replaces
+    * the old one, so that a crash while the list is written
+    * leaves the previous list intact.
+    * The blocks of each file are stored after its name,
+    * and so the list should be sorted by filename.
+    * @param listfile the name of the file that holds the list
+    * @param blks the blocks
+    */
+   public void writeBlockList(String listfile, List<Block> blks) {
+      Map<String,List<Integer>> files = new LinkedHashMap<String,List<Integer>>();
+      for (Block blk : blks) {
+         List<Integer> blknums = files.get(blk.fileName());
+         if (blknums == null) {
+            blknums = new ArrayList<Integer>();
+            files.put(blk.fileName(), blknums);
+         }
+         blknums.add(blk.number());
+      }
+      File f = new File(dbDirectory, listfile);
+      File newf = new File(dbDirectory, listfile + ".new");
+      try {
+         FileOutputStream fos = new FileOutputStream(newf);
+         try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(files.size());
+            for (Map.Entry<String,List<Integer>> e : files.entrySet()) {
+               out.writeUTF(e.getKey());
+               out.writeInt(e.getValue().size());
+               for (int blknum : e.getValue())
+                  out.writeInt(blknum);
+            }
+            out.flush();
+            fos.getFD().sync();
+         }
+         finally {
+            fos.close();
+         }
+         if (!newf.renameTo(f) && !(f.delete() && newf.renameTo(f)))
+            throw new IOException();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + listfile);
+      }
+   }
+
+   /**
+    * Reads a list of blocks written by
+    * {@link #writeBlockList(String, List) writeBlockList}.
+    * Blocks of files that no longer exist, and blocks
+    * beyond the end of their file, are omitted.
+    * The list is only a hint, and so
+    * if the file does not exist or cannot be read,
+    * then the blocks read so far are returned.
+    * @param listfile the name of the file that holds the list
+    * @return the blocks
+    */
+   public List<Block> readBlockList(String listfile) {
+      List<Block> blks = new ArrayList<Block>();
+      File f = new File(dbDirectory, listfile);
+      if (!f.exists())
+         return blks;
+      try {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+         try {
+            int numfiles = in.readInt();
+            for (int i=0; i<numfiles; i++) {
+               String filename = in.readUTF();
+               int count = in.readInt();
+               boolean exists = new File(dbDirectory, filename).exists();
+               int size = exists ? size(filename) : 0;
+               for (int j=0; j<count; j++) {
+                  int blknum = in.readInt();
+                  if (blknum < size)
+                     blks.add(new Block(filename, blknum));
+               }
+            }
+         }
+         finally {
+            in.close();
+         }
+      }
+      catch (IOException e) {
+         // a truncated list still yields its first blocks
+      }
+      return blks;
+   }
+
+   /**
+    * Returns the open file for the specified filename.
+    * The open files are stored in a map keyed on the filename.
+    * If the file is not open, then it is opened and
+    * added to the map.
+    * If two threads open the same file concurrently,
+    * the loser closes its copy and uses the winner's.
     * @param filename the specified filename
-    * @return the file channel associated with the open file.
+    * @return the open file
     * @throws IOException
     */
-   private FileChannel getFile(String filename) throws IOException {
-      FileChannel fc = openFiles.get(filename);
-      if (fc == null) {
-         File dbTable = new File(dbDirectory, filename);
-         RandomAccessFile f = new RandomAccessFile(dbTable, "rws");
-         fc = f.getChannel();
-         openFiles.put(filename, fc);
+   private DbFile getFile(String filename) throws IOException {
+      DbFile f = openFiles.get(filename);
+      if (f == null) {
+         DbFile newf = new DbFile(new File(dbDirectory, filename), blocksize, mapped);
+         f = openFiles.putIfAbsent(filename, newf);
+         if (f == null)
+            f = newf;
+         else
+            newf.close();
+      }
+      return f;
+   }
+
+   /**
+    * Reads the block size and charset from the header file.
+    * If there is no header file, then one is created
+    * containing the current block size and charset;
+    * if the header file has no charset, then the current one is added.
+    */
+   private void readOrCreateHeader() {
+      File hdr = new File(dbDirectory, HEADER_FILE);
+      try {
+         RandomAccessFile f = new RandomAccessFile(hdr, "rws");
+         try {
+            if (f.length() >= Page.INT_SIZE)
+               blocksize = f.readInt();
+            else
+               f.writeInt(blocksize);
+            if (f.length() > Page.INT_SIZE)
+               charset = Charset.forName(f.readUTF());
+            else
+               f.writeUTF(charset.name());
+         }
+         finally {
+            f.close();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot access " + HEADER_FILE);
       }
-      return fc;
    }
 }
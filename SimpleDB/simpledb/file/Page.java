@@ -3,10 +3,12 @@ package simpledb.file;
 import simpledb.server.SimpleDB;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.concurrent.Future;
 
 /**
  * The contents of a disk block in memory.
- * A page is treated as an array of BLOCK_SIZE bytes.
+ * A page is treated as an array of bytes, whose size
+ * is the database's {@link FileMgr#blockSize() block size}.
  * There are methods to get/set values into this array,
  * and to read/write the contents of this array to a disk block.
  * 
@@ -33,17 +35,22 @@ import java.nio.charset.Charset;
  * p3.read(blk);
  * String s = p3.getString(20);
  * </pre>
+ * <p>
+ * The methods that get and set values use absolute indexing
+ * into the page's byte buffer, and never change its position.
+ * They are therefore not synchronized:
+ * concurrent gets of a page are safe,
+ * and callers that need to exclude concurrent sets must
+ * do so themselves, as {@link simpledb.buffer.Buffer} does with its latch.
+ * Only the methods that transfer the page to or from disk
+ * are synchronized.
+ * <p>
+ * A page created by the constructor has its own direct byte buffer.
+ * The pages of the buffer pool are instead created together by
+ * {@link #allocate(int)}, as slices of a few large direct buffers.
  * @author Edward Sciore
  */
 public class Page {
-   /**
-    * The number of bytes in a block.
-    * This value is set unreasonably low, so that it is easier
-    * to create and test databases having a lot of blocks.
-    * A more realistic value would be 4K.
-    */
-   public static final int BLOCK_SIZE = 400;
-   
    /**
     * The size of an integer in bytes.
     * This value is almost certainly 4, but it is
@@ -51,23 +58,44 @@ public class Page {
     */
    public static final int INT_SIZE = Integer.SIZE / Byte.SIZE;
    
+   /**
+    * The maximum size, in bytes, of a slab of pages
+    * allocated by {@link #allocate(int)}.
+    */
+   public static final int MAX_SLAB_SIZE = 1 << 30;
+   
    /**
     * The maximum size, in bytes, of a string of length n.
     * A string is represented as the encoding of its characters,
     * preceded by an integer denoting the number of bytes in this encoding.
-    * If the JVM uses the US-ASCII encoding, then each char
+    * The encoding is the database's {@link FileMgr#charset() charset}.
+    * If the database uses the US-ASCII encoding, then each char
     * is stored in one byte, so a string of n characters
-    * has a size of 4+n bytes.
+    * has a size of 4+n bytes; in UTF-8, the size is 4+3n bytes.
     * @param n the size of the string
     * @return the maximum number of bytes required to store a string of size n
     */
    public static final int STR_SIZE(int n) {
-      float bytesPerChar = Charset.defaultCharset().newEncoder().maxBytesPerChar();
-      return INT_SIZE + (n * (int)bytesPerChar);
+      return INT_SIZE + (n * SimpleDB.fileMgr().bytesPerChar());
+   }
+   
+   /**
+    * Encodes a string in the database's charset.
+    * The result can be passed to the methods
+    * {@link #compareString(int, byte[]) compareString} and
+    * {@link #equalsString(int, byte[]) equalsString}.
+    * @param s the string
+    * @return the encoded bytes of the string
+    */
+   public static byte[] encode(String s) {
+      return s.getBytes(SimpleDB.fileMgr().charset());
    }
    
-   private ByteBuffer contents = ByteBuffer.allocateDirect(BLOCK_SIZE);
-   private FileMgr filemgr = SimpleDB.fileMgr();
+   private FileMgr filemgr;
+   private ByteBuffer contents;
+   private Charset charset;
+   private boolean utf8;
+   private boolean bytewise;
    
    /**
     * Creates a new page.  Although the constructor takes no arguments,
@@ -81,7 +109,52 @@ public class Page {
     * {@link simpledb.server.SimpleDB#initFileLogAndBufferMgr(String)}
     * is called first.
     */
-   public Page() {}
+   public Page() {
+      this(SimpleDB.fileMgr(), ByteBuffer.allocateDirect(SimpleDB.fileMgr().blockSize()));
+   }
+   
+   /**
+    * Creates a page of the specified file manager whose contents
+    * are the specified block-sized byte buffer.
+    * @param filemgr the file manager that reads and writes the page
+    * @param contents the byte buffer that holds the page
+    */
+   private Page(FileMgr filemgr, ByteBuffer contents) {
+      this.filemgr = filemgr;
+      this.contents = contents;
+      charset = filemgr.charset();
+      utf8 = charset.name().equals("UTF-8");
+      bytewise = utf8 || charset.name().equals("US-ASCII")
+                      || charset.name().equals("ISO-8859-1");
+   }
+   
+   /**
+    * Creates the specified number of pages, whose contents
+    * are slices of large, contiguous direct byte buffers
+    * (called slabs) rather than individual ones.
+    * The pages are allocated with as few slabs as possible;
+    * each slab holds at most {@link #MAX_SLAB_SIZE} bytes.
+    * This method is used by the buffer manager to allocate its pool.
+    * @param numpages the number of pages
+    * @return the pages
+    */
+   public static Page[] allocate(int numpages) {
+      int blocksize = SimpleDB.fileMgr().blockSize();
+      int pagesPerSlab = Math.max(1, MAX_SLAB_SIZE / blocksize);
+      Page[] pages = new Page[numpages];
+      ByteBuffer slab = null;
+      for (int i=0; i<numpages; i++) {
+         int slot = i % pagesPerSlab;
+         if (slot == 0) {
+            int slabpages = Math.min(pagesPerSlab, numpages - i);
+            slab = ByteBuffer.allocateDirect(slabpages * blocksize);
+         }
+         slab.limit((slot+1) * blocksize);
+         slab.position(slot * blocksize);
+         pages[i] = new Page(SimpleDB.fileMgr(), slab.slice());
+      }
+      return pages;
+   }
    
    /**
     * Populates the page with the contents of the specified disk block. 
@@ -91,6 +164,35 @@ public class Page {
       filemgr.read(blk, contents);
    }
    
+   /**
+    * Starts populating the page with the contents of the specified disk block,
+    * without waiting for the read to complete.
+    * The page must not be accessed until the returned future is done.
+    * @param blk a reference to a disk block
+    * @return a future that completes when the page has been read
+    */
+   public synchronized Future<?> readAsync(Block blk) {
+      return filemgr.readAsync(blk, contents);
+   }
+   
+   /**
+    * Starts populating the specified pages with the contents
+    * of consecutive blocks of a file, without waiting for the reads
+    * to complete.
+    * The blocks are read with a single vectored read.
+    * The pages must not be accessed until the returned future is done.
+    * @param filename the name of the file
+    * @param start the number of the block read into the first page
+    * @param pages the pages
+    * @return a future that completes when all of the pages have been read
+    */
+   public static Future<?> readAsync(String filename, int start, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i=0; i<pages.length; i++)
+         bbs[i] = pages[i].contents;
+      return pages[0].filemgr.readBlocksAsync(filename, start, bbs);
+   }
+   
    /**
     * Writes the contents of the page to the specified disk block.
     * @param blk a reference to a disk block
@@ -99,6 +201,23 @@ public class Page {
       filemgr.write(blk, contents);
    }
    
+   /**
+    * Writes the contents of the specified pages to consecutive
+    * blocks of a file, using a single gathering write.
+    * The blocks may extend past the end of the file,
+    * which grows to hold them.
+    * The pages must not be modified until the method returns.
+    * @param filename the name of the file
+    * @param start the number of the block written from the first page
+    * @param pages the pages
+    */
+   public static void write(String filename, int start, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i=0; i<pages.length; i++)
+         bbs[i] = pages[i].contents;
+      pages[0].filemgr.writeBlocks(filename, start, bbs);
+   }
+   
    /**
     * Appends the contents of the page to the specified file.
     * @param filename the name of the file
@@ -108,6 +227,35 @@ public class Page {
       return filemgr.append(filename, contents);
    }
    
+   /**
+    * Creates an empty page of the same file manager as this page,
+    * which therefore has the same size and charset,
+    * and is written to the same database.
+    * @return the new page
+    */
+   public Page newPage() {
+      return new Page(filemgr, ByteBuffer.allocateDirect(contents.capacity()));
+   }
+   
+   /**
+    * Returns true if the specified page belongs to
+    * the same file manager as this page.
+    * @param other the other page
+    * @return true if the pages have the same file manager
+    */
+   public boolean sameFileMgr(Page other) {
+      return filemgr == other.filemgr;
+   }
+   
+   /**
+    * Replaces the contents of the page with
+    * the contents of the specified page.
+    * @param other the page to copy
+    */
+   public void copyFrom(Page other) {
+      view(0).put(other.view(0));
+   }
+   
    /**
     * Returns the integer value at a specified offset of the page.
     * If an integer was not stored at that location, 
@@ -115,9 +263,8 @@ public class Page {
     * @param offset the byte offset within the page
     * @return the integer value at that offset
     */
-   public synchronized int getInt(int offset) {
-      contents.position(offset);
-      return contents.getInt();
+   public int getInt(int offset) {
+      return contents.getInt(offset);
    }
    
    /**
@@ -125,9 +272,8 @@ public class Page {
     * @param offset the byte offset within the page
     * @param val the integer to be written to the page
     */
-   public synchronized void setInt(int offset, int val) {
-      contents.position(offset);
-      contents.putInt(val);
+   public void setInt(int offset, int val) {
+      contents.putInt(offset, val);
    }
    
    /**
@@ -137,12 +283,11 @@ public class Page {
     * @param offset the byte offset within the page
     * @return the string value at that offset
     */
-   public synchronized String getString(int offset) {
-      contents.position(offset);
-      int len = contents.getInt();
+   public String getString(int offset) {
+      int len = contents.getInt(offset);
       byte[] byteval = new byte[len];
-      contents.get(byteval);
-      return new String(byteval);
+      view(offset + INT_SIZE).get(byteval);
+      return new String(byteval, charset);
    }
    
    /**
@@ -150,10 +295,115 @@ public class Page {
     * @param offset the byte offset within the page
     * @param val the string to be written to the page
     */
-   public synchronized void setString(int offset, String val) {
-      contents.position(offset);
-      byte[] byteval = val.getBytes();
-      contents.putInt(byteval.length);
-      contents.put(byteval);
+   public void setString(int offset, String val) {
+      byte[] byteval = val.getBytes(charset);
+      contents.putInt(offset, byteval.length);
+      view(offset + INT_SIZE).put(byteval);
+   }
+
+   /**
+    * Compares the string at the specified offset of the page
+    * with an encoded key, without decoding the string.
+    * The bytes are compared in place, and are ordered
+    * so that the result agrees with {@link String#compareTo(String)}.
+    * That is possible only for UTF-8 and for the single-byte charsets
+    * whose byte values are their characters' code points;
+    * in any other charset, the string and key are decoded and compared.
+    * @param offset the byte offset within the page
+    * @param key the key, as encoded by {@link #encode(String)}
+    * @return a negative value, zero, or a positive value
+    * as the string is less than, equal to, or greater than the key
+    */
+   public int compareString(int offset, byte[] key) {
+      if (!bytewise)
+         return getString(offset).compareTo(new String(key, charset));
+      int len = contents.getInt(offset);
+      int pos = offset + INT_SIZE;
+      int n = Math.min(len, key.length);
+      for (int i=0; i<n; i++) {
+         byte b = contents.get(pos + i);
+         if (b != key[i])
+            return charOrder(b) - charOrder(key[i]);
+      }
+      return len - key.length;
+   }
+   
+   /**
+    * Compares the string at the specified offset of this page
+    * with the string at the specified offset of another page,
+    * without decoding either string.
+    * @param offset the byte offset within this page
+    * @param other the other page
+    * @param otheroffset the byte offset within the other page
+    * @return a negative value, zero, or a positive value
+    * as the string in this page is less than, equal to,
+    * or greater than the string in the other page
+    */
+   public int compareString(int offset, Page other, int otheroffset) {
+      if (!bytewise)
+         return getString(offset).compareTo(other.getString(otheroffset));
+      int len = contents.getInt(offset);
+      int otherlen = other.contents.getInt(otheroffset);
+      int pos = offset + INT_SIZE;
+      int otherpos = otheroffset + INT_SIZE;
+      int n = Math.min(len, otherlen);
+      for (int i=0; i<n; i++) {
+         byte b = contents.get(pos + i);
+         byte otherb = other.contents.get(otherpos + i);
+         if (b != otherb)
+            return charOrder(b) - charOrder(otherb);
+      }
+      return len - otherlen;
+   }
+   
+   /**
+    * Returns true if the string at the specified offset of the page
+    * equals an encoded key.
+    * The bytes are compared in place, without decoding the string.
+    * @param offset the byte offset within the page
+    * @param key the key, as encoded by {@link #encode(String)}
+    * @return true if the string equals the key
+    */
+   public boolean equalsString(int offset, byte[] key) {
+      if (contents.getInt(offset) != key.length)
+         return false;
+      int pos = offset + INT_SIZE;
+      for (int i=0; i<key.length; i++)
+         if (contents.get(pos + i) != key[i])
+            return false;
+      return true;
+   }
+   
+   /**
+    * Returns the sort order of the first differing byte of two
+    * encoded strings.
+    * Unsigned bytes sort in code point order,
+    * whereas Java strings sort in UTF-16 order,
+    * where supplementary characters precede the characters
+    * U+E000 to U+FFFF.
+    * The lead bytes of those characters (0xEE and 0xEF)
+    * are therefore moved above the lead bytes
+    * of supplementary characters (0xF0 to 0xF4) in UTF-8.
+    * @param b a byte of an encoded string
+    * @return the position of the byte in the sort order
+    */
+   private int charOrder(byte b) {
+      int val = b & 0xFF;
+      return (utf8 && (val == 0xEE || val == 0xEF)) ? val + 0x10 : val;
+   }
+   
+   /**
+    * Returns a view of the page's contents, positioned at the
+    * specified offset.
+    * The view has its own position, so bulk transfers through it
+    * do not disturb the page's byte buffer.
+    * @param offset the byte offset within the page
+    * @return a view of the page starting at that offset
+    */
+   private ByteBuffer view(int offset) {
+      ByteBuffer bb = contents.duplicate();
+      bb.limit(bb.capacity());
+      bb.position(offset);
+      return bb;
    }
 }
@@ -109,7 +109,7 @@ public class BTreeDir {
 
    private Block findChildBlock(Constant searchkey) {
       int slot = contents.findSlotBefore(searchkey);
-      if (contents.getDataVal(slot+1).equals(searchkey))
+      if (contents.dataValEquals(slot+1, searchkey))
          slot++;
       int blknum = contents.getChildNum(slot);
       return new Block(filename, blknum);
@@ -50,7 +50,7 @@ public class BTreeLeaf {
       currentslot++;
       if (currentslot >= contents.getNumRecs()) 
          return tryOverflow();
-      else if (contents.getDataVal(currentslot).equals(searchkey))
+      else if (contents.dataValEquals(currentslot, searchkey))
          return true;
       else 
          return tryOverflow();
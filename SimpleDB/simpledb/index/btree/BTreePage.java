@@ -3,6 +3,7 @@ package simpledb.index.btree;
 import static java.sql.Types.INTEGER;
 import static simpledb.file.Page.*;
 import simpledb.file.Block;
+import simpledb.server.SimpleDB;
 import simpledb.record.*;
 import simpledb.query.*;
 import simpledb.tx.Transaction;
@@ -12,6 +13,10 @@ import simpledb.tx.Transaction;
  * in particular, their records are stored in sorted order, 
  * and pages split when full.
  * A BTreePage object contains this common functionality.
+ * Searching the page and inserting or deleting a record
+ * are each performed as a single operation of the transaction,
+ * so that the block is locked and latched once per operation
+ * rather than once per value.
  * @author Edward Sciore
  */
 public class BTreePage {
@@ -19,6 +24,7 @@ public class BTreePage {
    private TableInfo ti;
    private Transaction tx;
    private int slotsize;
+   private int blocksize;
    
    /**
     * Opens a page for the specified B-tree block.
@@ -31,6 +37,7 @@ public class BTreePage {
       this.ti = ti;
       this.tx = tx;
       slotsize = ti.recordLength();
+      blocksize = SimpleDB.fileMgr().blockSize();
       tx.pin(currentblk);
    }
    
@@ -42,10 +49,23 @@ public class BTreePage {
     * @return the position before where the search key goes
     */
    public int findSlotBefore(Constant searchkey) {
-      int slot = 0;
-      while (slot < getNumRecs() && getDataVal(slot).compareTo(searchkey) < 0)
-         slot++;
-      return slot-1;
+      tx.beginOperation(currentblk, false);
+      try {
+         int slot = 0;
+         int numrecs = getNumRecs();
+         if (searchkey instanceof StringConstant) {
+            byte[] key = ((StringConstant) searchkey).asBytes();
+            while (slot < numrecs && compareDataVal(slot, key) < 0)
+               slot++;
+         }
+         else
+            while (slot < numrecs && getDataVal(slot).compareTo(searchkey) < 0)
+               slot++;
+         return slot-1;
+      }
+      finally {
+         tx.endOperation();
+      }
    }
    
    /**
@@ -62,7 +82,7 @@ public class BTreePage {
     * @return true if the block is full
     */
    public boolean isFull() {
-      return slotpos(getNumRecs()+1) >= BLOCK_SIZE;
+      return slotpos(getNumRecs()+1) >= blocksize;
    }
    
    /**
@@ -91,6 +111,24 @@ public class BTreePage {
       return getVal(slot, "dataval");
    }
    
+   /**
+    * Returns true if the dataval of the record at the
+    * specified slot equals the specified value.
+    * A string value is compared in place, without
+    * creating a constant for the dataval.
+    * @param slot the integer slot of an index record
+    * @param val the value
+    * @return true if the record's dataval equals the value
+    */
+   public boolean dataValEquals(int slot, Constant val) {
+      if (val instanceof StringConstant) {
+         int pos = fldpos(slot, "dataval");
+         return tx.equalsString(currentblk, pos, ((StringConstant) val).asBytes());
+      }
+      else
+         return getDataVal(slot).equals(val);
+   }
+   
    /**
     * Returns the value of the page's flag field
     * @return the value of the page's flag field
@@ -136,9 +174,15 @@ public class BTreePage {
     * @param blknum the block number to be stored
     */
    public void insertDir(int slot, Constant val, int blknum) {
-      insert(slot);
-      setVal(slot, "dataval", val);
-      setInt(slot, "block", blknum);
+      tx.beginOperation(currentblk, true);
+      try {
+         insert(slot);
+         setVal(slot, "dataval", val);
+         setInt(slot, "block", blknum);
+      }
+      finally {
+         tx.endOperation();
+      }
    }
    
    // Methods called only by BTreeLeaf
@@ -159,10 +203,16 @@ public class BTreePage {
     * @param rid the new dataRID
     */
    public void insertLeaf(int slot, Constant val, RID rid) {
-      insert(slot);
-      setVal(slot, "dataval", val);
-      setInt(slot, "block", rid.blockNumber());
-      setInt(slot, "id", rid.id());
+      tx.beginOperation(currentblk, true);
+      try {
+         insert(slot);
+         setVal(slot, "dataval", val);
+         setInt(slot, "block", rid.blockNumber());
+         setInt(slot, "id", rid.id());
+      }
+      finally {
+         tx.endOperation();
+      }
    }
    
    /**
@@ -170,10 +220,15 @@ public class BTreePage {
     * @param slot the slot of the deleted index record
     */
    public void delete(int slot) {
-      for (int i=slot+1; i<getNumRecs(); i++)
-         copyRecord(i, i-1);
-      setNumRecs(getNumRecs()-1);
-      return;
+      tx.beginOperation(currentblk, true);
+      try {
+         for (int i=slot+1; i<getNumRecs(); i++)
+            copyRecord(i, i-1);
+         setNumRecs(getNumRecs()-1);
+      }
+      finally {
+         tx.endOperation();
+      }
    }
    
    /**
@@ -196,6 +251,11 @@ public class BTreePage {
       return tx.getString(currentblk, pos);
    }
    
+   private int compareDataVal(int slot, byte[] key) {
+      int pos = fldpos(slot, "dataval");
+      return tx.compareString(currentblk, pos, key);
+   }
+   
    private Constant getVal(int slot, String fldname) {
       int type = ti.schema().type(fldname);
       if (type == INTEGER)
@@ -17,6 +17,7 @@ public class HashIndex implements Index {
 	private Schema sch;
 	private Transaction tx;
 	private Constant searchkey = null;
+	private byte[] searchbytes = null;
 	private TableScan ts = null;
 
 	/**
@@ -43,6 +44,10 @@ public class HashIndex implements Index {
 	public void beforeFirst(Constant searchkey) {
 		close();
 		this.searchkey = searchkey;
+		if (searchkey instanceof StringConstant)
+			searchbytes = ((StringConstant) searchkey).asBytes();
+		else
+			searchbytes = null;
 		int bucket = searchkey.hashCode() % NUM_BUCKETS;
 		String tblname = idxname + bucket;
 		TableInfo ti = new TableInfo(tblname, sch);
@@ -58,7 +63,8 @@ public class HashIndex implements Index {
 	 */
 	public boolean next() {
 		while (ts.next())
-			if (ts.getVal("dataval").equals(searchkey))
+			if (searchbytes != null ? ts.equalsString("dataval", searchbytes)
+			                        : ts.getVal("dataval").equals(searchkey))
 				return true;
 		return false;
 	}
@@ -108,6 +108,17 @@ public class IndexJoinScan implements Scan {
          return s.getString(fldname);
    }
    
+   /**
+    * Compares the string value of the specified field with an encoded key.
+    * @see simpledb.query.Scan#equalsString(java.lang.String, byte[])
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      if (ts.hasField(fldname))
+         return ts.equalsString(fldname, key);
+      else
+         return s.equalsString(fldname, key);
+   }
+   
    /** Returns true if the field is in the schema.
      * @see simpledb.query.Scan#hasField(java.lang.String)
      */
@@ -88,6 +88,15 @@ public class IndexSelectScan implements Scan {
       return ts.getString(fldname);
    }
    
+   /**
+    * Compares the value of the field of the current data record
+    * with an encoded key.
+    * @see simpledb.query.Scan#equalsString(java.lang.String, byte[])
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      return ts.equalsString(fldname, key);
+   }
+   
    /**
     * Returns whether the data record has the specified field.
     * @see simpledb.query.Scan#hasField(java.lang.String)
@@ -2,29 +2,58 @@ package simpledb.log;
 
 import static simpledb.file.Page.INT_SIZE;
 import simpledb.file.*;
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * A class that provides the ability to move through the
  * records of the log file in reverse order.
+ * The log does not go through the buffer pool,
+ * and so the iterator does its own read-ahead:
+ * once the iterator leaves the last block,
+ * the blocks are read in batches of {@link #READ_AHEAD_BLOCKS},
+ * each by a single vectored read, and the read of the next
+ * (earlier) batch is started as soon as the iterator
+ * moves into the current one.
+ * An iterator that stays in the last block, as when
+ * a short transaction is rolled back, reads nothing more.
+ * A batch never extends past the beginning of its segment,
+ * and the iterator ends at the first block of the oldest segment.
+ * The batches are read through {@link LogMgr#readBlocks(int, Page[])},
+ * so that a truncation of the log does not delete a segment
+ * while it is being read; a batch that has been truncated
+ * is not read, and the iterator ends before it.
  * 
  * @author Edward Sciore
  */
 class LogIterator implements Iterator<BasicLogRecord> {
-   private Block blk;
+   /**
+    * The number of log blocks read at a time.
+    */
+   static final int READ_AHEAD_BLOCKS = 8;
+   
+   private LogMgr logMgr;
+   private int blknum;
    private Page pg = new Page();
    private int currentrec;
+   private Page[] batch, nextbatch;
+   private int batchstart, nextstart;
+   private Future<?> nextread = null;
    
    /**
-    * Creates an iterator for the records in the log file,
+    * Creates an iterator for the records in the log,
     * positioned after the last log record.
     * This constructor is called exclusively by
     * {@link LogMgr#iterator()}.
+    * @param logMgr the log manager
+    * @param blknum the number of the last block of the log
     */
-   LogIterator(Block blk) {
-      this.blk = blk;
-      pg.read(blk);
+   LogIterator(LogMgr logMgr, int blknum) {
+      this.logMgr = logMgr;
+      this.blknum = blknum;
+      pg.read(logMgr.logBlock(blknum));
       currentrec = pg.getInt(LogMgr.LAST_POS);
+      batchstart = blknum;
    }
    
    /**
@@ -33,7 +62,7 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentrec>0 || blk.number()>0;
+      return currentrec>0 || blknum>logMgr.firstBlock();
    }
    
    /**
@@ -59,8 +88,59 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * and positions it after the last record in that block.
     */
    private void moveToNextBlock() {
-      blk = new Block(blk.fileName(), blk.number()-1);
-      pg.read(blk);
+      blknum--;
+      if (blknum < batchstart) {
+         if (batch == null) {
+            batch = newBatch();
+            nextbatch = newBatch();
+            readNextBatch();
+         }
+         waitForNextBatch();
+         Page[] temp = batch;
+         batch = nextbatch;
+         nextbatch = temp;
+         batchstart = nextstart;
+         readNextBatch();
+      }
+      pg = batch[blknum - batchstart];
       currentrec = pg.getInt(LogMgr.LAST_POS);
    }
+   
+   /**
+    * Starts reading the batch of blocks that precede
+    * the current batch, if there are any
+    * and the log has not been truncated past them.
+    */
+   private void readNextBatch() {
+      int first = logMgr.firstBlock();
+      if (batchstart <= first) {
+         nextread = null;
+         return;
+      }
+      nextstart = Math.max(batchstart - READ_AHEAD_BLOCKS, logMgr.segmentStart(batchstart - 1));
+      nextstart = Math.max(nextstart, first);
+      Page[] pages = Arrays.copyOf(nextbatch, batchstart - nextstart);
+      nextread = logMgr.readBlocks(nextstart, pages);
+   }
+   
+   private void waitForNextBatch() {
+      if (nextread == null)
+         throw new NoSuchElementException("the log has been truncated");
+      try {
+         nextread.get();
+      }
+      catch(InterruptedException e) {
+         throw new RuntimeException("interrupted while reading the log");
+      }
+      catch(ExecutionException e) {
+         throw new RuntimeException("cannot read the log");
+      }
+   }
+   
+   private static Page[] newBatch() {
+      Page[] pages = new Page[READ_AHEAD_BLOCKS];
+      for (int i=0; i<pages.length; i++)
+         pages[i] = new Page();
+      return pages;
+   }
 }
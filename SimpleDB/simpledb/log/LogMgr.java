@@ -4,6 +4,9 @@ import simpledb.server.SimpleDB;
 import simpledb.file.*;
 import static simpledb.file.Page.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.*;
 
 /**
  * The low-level log manager.
@@ -13,6 +16,67 @@ import java.util.*;
  * The log manager does not understand the meaning of these
  * values, which are written and read by the
  * {@link simpledb.tx.recovery.RecoveryMgr recovery manager}.
+ * <p>
+ * The LSN of a log record is the byte offset in the log
+ * of the end of the record, and so LSNs increase monotonically
+ * and distinguish the records of the same block.
+ * <p>
+ * The log is split into segment files of a fixed number of blocks,
+ * whose names are the name of the log followed by
+ * a period and the segment number.
+ * The first block of each segment is its header,
+ * which holds the segment number, the number of log blocks
+ * in a segment, and the number of the oldest segment that
+ * was still needed when the segment was started.
+ * When the system restarts, the header of the last segment
+ * tells which segments recovery needs, and the older ones are deleted;
+ * the log iterator stops at the beginning of the oldest segment.
+ * While the system runs, the {@link #truncate(long) truncate} method
+ * deletes the segments whose records are no longer needed,
+ * so that the size of the log on disk stays bounded.
+ * <p>
+ * The tail of the log is kept in a ring of pages, one per block.
+ * Records are appended to the page of the last block;
+ * when it is full, the next page of the ring is used,
+ * and the full pages are not written until the ring is full,
+ * when they are all written by a single gathering write.
+ * A flush writes the unwritten pages only up to the block
+ * that holds the requested LSN, and a flush of an LSN
+ * that is already on disk writes nothing.
+ * <p>
+ * Appends do not lock the manager.
+ * A thread reserves the bytes of its record by
+ * a compare-and-set of the LSN of the end of the log,
+ * and then copies its record into the page
+ * at the same time as the threads that reserved other ranges.
+ * Only the move to the next block is done under a latch,
+ * since it may have to write the full pages of the ring.
+ * A thread that has copied its record advances the filled LSN
+ * past it if the earlier records have all been copied;
+ * otherwise it leaves its range to be taken over by the thread
+ * that fills the gap before it, and returns without waiting.
+ * The log up to the filled LSN therefore has no gaps,
+ * and a flush waits for the filled LSN to reach the
+ * LSN that it writes.
+ * The pointer to the last record of a page is set
+ * only when the page is written, from the filled LSN,
+ * so that a page on disk never points to a record
+ * whose copy was in progress.
+ * <p>
+ * Flushes of the log are group commits.
+ * A thread that needs its records on disk joins a commit queue.
+ * If no flush is in progress, the thread becomes the leader:
+ * it waits up to the commit delay for more threads to join the queue,
+ * or until the queue holds a full batch, and then writes and forces
+ * the log once on behalf of all of them.
+ * The other threads are followers; they are released as soon as
+ * the leader's force covers their records, and otherwise one of them
+ * leads the next flush.
+ * The leader waits only if its predecessor's group had more
+ * than one thread, so that a lone committer is never delayed.
+ * The log pages are written while the manager's lock is held,
+ * but the force is not, so that records can be appended
+ * while the leader waits for the disk.
  * @author Edward Sciore
  */
 public class LogMgr implements Iterable<BasicLogRecord> {
@@ -22,14 +86,69 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public static final int LAST_POS = 0;
 
+   /**
+    * The default number of pages in the ring of log pages.
+    */
+   public static final int DEFAULT_LOG_BUFFERS = 16;
+
+   /**
+    * The default number of log blocks in each segment file,
+    * not counting the segment's header block.
+    */
+   public static final int DEFAULT_SEGMENT_BLOCKS = 1024;
+
+   /**
+    * The locations in a segment's header of its segment number,
+    * of the number of log blocks in a segment,
+    * and of the number of the oldest needed segment.
+    */
+   static final int SEGMENT_POS = 0, SEGMENT_BLOCKS_POS = 4, FIRST_SEGMENT_POS = 8;
+
+   /**
+    * The default longest time, in microseconds, that the leader
+    * of a group commit waits for other threads to join it.
+    * By default the leader does not wait; the threads that
+    * queue during a flush still form the next group.
+    * A delay pays off only when a force of the log
+    * takes much longer than a transaction's commit path.
+    */
+   public static final long DEFAULT_COMMIT_DELAY = 0;
+
+   /**
+    * The default number of waiting threads
+    * at which the leader of a group commit stops waiting.
+    */
+   public static final int DEFAULT_COMMIT_BATCH = 16;
+
    private String logfile;
-   private Page mypage = new Page();
-   private Block currentblk;
-   private int currentpos;
+   private int segmentBlocks;
+   private volatile int firstSegment;
+   private int unforcedSegment;
+   private int blocksize = SimpleDB.fileMgr().blockSize();
+   private Page[] ring;
+   private int[] ends;
+   private final AtomicLong reserved = new AtomicLong();
+   private final AtomicLong filled = new AtomicLong();
+   private final ConcurrentMap<Long,Long> filledRanges = new ConcurrentHashMap<Long,Long>();
+   private final Object blockLatch = new Object();
+   private final Object segmentLatch = new Object();
+   private final List<Future<?>> pendingReads = new ArrayList<Future<?>>();
+   private int firstUnwritten;
+
+   private final Lock commitLock = new ReentrantLock();
+   private final Condition commitQueue = commitLock.newCondition();
+   private long flushed;
+   private long requested = 0;
+   private boolean flushing = false;
+   private int waiting = 0;
+   private int lastGroup = 1;
+   private volatile long commitDelay = DEFAULT_COMMIT_DELAY;
+   private volatile int commitBatch = DEFAULT_COMMIT_BATCH;
 
    /**
-    * Creates the manager for the specified log file.
-    * If the log file does not yet exist, it is created
+    * Creates the manager for the specified log,
+    * with the default number of log pages and segment size.
+    * If the log does not yet exist, its first segment is created
     * with an empty first block.
     * This constructor depends on a {@link FileMgr} object
     * that it gets from the method
@@ -38,39 +157,234 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * Thus this constructor cannot be called until
     * {@link simpledb.server.SimpleDB#initFileMgr(String)}
     * is called first.
-    * @param logfile the name of the log file
+    * @param logfile the name of the log
     */
    public LogMgr(String logfile) {
+      this(logfile, DEFAULT_LOG_BUFFERS, DEFAULT_SEGMENT_BLOCKS);
+   }
+
+   /**
+    * Creates the manager for the specified log,
+    * whose tail is kept in the specified number of pages.
+    * The segment size of an existing log is read from
+    * the header of its last segment, and so the specified
+    * size applies only to a new log.
+    * A last segment that holds only its header was started
+    * just before a crash, and is deleted.
+    * @param logfile the name of the log
+    * @param numbuffers the number of pages in the ring, at least 2
+    * @param segmentBlocks the number of log blocks in each segment of a new log
+    */
+   public LogMgr(String logfile, int numbuffers, int segmentBlocks) {
       this.logfile = logfile;
-      int logsize = SimpleDB.fileMgr().size(logfile);
-      if (logsize == 0)
-         appendNewBlock();
+      this.segmentBlocks = Math.max(1, segmentBlocks);
+      ring = new Page[Math.max(2, numbuffers)];
+      ends = new int[ring.length];
+      for (int i=0; i<ring.length; i++)
+         ring[i] = new Page();
+      FileMgr fm = SimpleDB.fileMgr();
+      List<Integer> segments = segments();
+      while (!segments.isEmpty() && fm.size(segmentFile(segments.get(segments.size()-1))) <= 1)
+         fm.delete(segmentFile(segments.remove(segments.size()-1)));
+      int lastblk = 0;
+      int lastpos = 0;
+      if (segments.isEmpty())
+         createSegment(0);
       else {
-         currentblk = new Block(logfile, logsize-1);
-         mypage.read(currentblk);
-         currentpos = getLastRecordPosition() + INT_SIZE;
+         int lastseg = segments.get(segments.size()-1);
+         Page hdr = ring[0];
+         hdr.read(new Block(segmentFile(lastseg), 0));
+         this.segmentBlocks = hdr.getInt(SEGMENT_BLOCKS_POS);
+         firstSegment = Math.max(hdr.getInt(FIRST_SEGMENT_POS), segments.get(0));
+         for (int segnum : segments)
+            if (segnum < firstSegment)
+               fm.delete(segmentFile(segnum));
+         lastblk = lastseg * this.segmentBlocks + fm.size(segmentFile(lastseg)) - 2;
+         Page pg = ring[lastblk % ring.length];
+         pg.read(logBlock(lastblk));
+         lastpos = pg.getInt(LAST_POS);
       }
+      long lsn = (long) lastblk * blocksize + lastpos + INT_SIZE;
+      reserved.set(lsn);
+      filled.set(lsn);
+      firstUnwritten = lastblk;
+      unforcedSegment = lastblk / this.segmentBlocks;
+      if (segments.isEmpty())
+         writeThrough(0, lsn);
+      flushed = lsn;
    }
 
    /**
     * Ensures that the log records corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * If the LSN is not yet on disk, then the thread waits
+    * in the commit queue until a group commit has covered it.
+    * An LSN beyond the end of the log, such as one that was
+    * issued before a restart, requests a flush of the whole log.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= currentLSN())
-         flush();
+   public void flush(long lsn) {
+      lsn = Math.min(lsn, reserved.get());
+      commitLock.lock();
+      try {
+         if (lsn <= flushed)
+            return;
+         waiting++;
+         if (lsn > requested)
+            requested = lsn;
+         commitQueue.signalAll();
+         try {
+            while (lsn > flushed) {
+               if (flushing) {
+                  commitQueue.awaitUninterruptibly();
+                  continue;
+               }
+               flushing = true;
+               if (lastGroup > 1)
+                  gather();
+               int group = waiting;
+               long target = requested;
+               long upto = 0;
+               commitLock.unlock();
+               try {
+                  upto = writeLog(target);
+               }
+               finally {
+                  commitLock.lock();
+                  flushing = false;
+                  lastGroup = group;
+                  publish(upto);
+               }
+            }
+         }
+         finally {
+            waiting--;
+         }
+      }
+      finally {
+         commitLock.unlock();
+      }
+   }
+
+   /**
+    * Sets how group commits are batched.
+    * A delay of 0 turns off waiting, but the threads that
+    * queue while a flush is in progress are still
+    * flushed together by the next one.
+    * @param delay the longest time that a leader waits, in microseconds
+    * @param batch the number of waiting threads at which the leader stops waiting
+    */
+   public void setGroupCommit(long delay, int batch) {
+      commitDelay = delay;
+      commitBatch = batch;
+   }
+
+   /**
+    * Deletes the segments of the log whose records all
+    * precede the specified LSN, which are no longer needed.
+    * The recovery manager calls this method with the LSN of
+    * the oldest record that rollback or recovery may still read.
+    * A segment that holds unwritten pages is not deleted,
+    * and neither is the segment that holds the LSN.
+    * The segments are deleted under a latch,
+    * so that a flush never forces a deleted segment,
+    * and only after the pending reads of the log iterators
+    * have completed, so that no read finds its segment gone.
+    * @param lsn the LSN of the oldest needed log record
+    */
+   public void truncate(long lsn) {
+      int oldfirst, newfirst;
+      synchronized (this) {
+         newfirst = Math.min(blockOf(lsn), firstUnwritten) / segmentBlocks;
+         oldfirst = firstSegment;
+         if (newfirst <= oldfirst)
+            return;
+         firstSegment = newfirst;
+      }
+      synchronized (segmentLatch) {
+         for (Future<?> read : pendingReads) {
+            try {
+               read.get();
+            }
+            catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {}
+         }
+         pendingReads.clear();
+         for (int segnum=oldfirst; segnum<newfirst; segnum++)
+            SimpleDB.fileMgr().delete(segmentFile(segnum));
+      }
+   }
+
+   /**
+    * Returns the disk block that holds the specified block of the log.
+    * @param blknum the number of a block of the log
+    * @return the block of its segment file
+    */
+   Block logBlock(int blknum) {
+      return new Block(segmentFile(blknum / segmentBlocks), blknum % segmentBlocks + 1);
+   }
+
+   /**
+    * Returns the number of the first block of the oldest segment.
+    * @return the number of the oldest block of the log
+    */
+   int firstBlock() {
+      return firstSegment * segmentBlocks;
+   }
+
+   /**
+    * Starts reading consecutive blocks of the log into the
+    * specified pages, which must lie in a single segment.
+    * The read is started under the segment latch, and only
+    * if the log has not been truncated past the first block;
+    * a truncation then waits for the read before it deletes
+    * the segment.
+    * This method is called by {@link LogIterator}.
+    * @param start the number of the first log block
+    * @param pages the pages
+    * @return a future that completes when the pages have been read,
+    * or null if the blocks have been truncated
+    */
+   Future<?> readBlocks(int start, Page[] pages) {
+      synchronized (segmentLatch) {
+         if (start < firstBlock())
+            return null;
+         Iterator<Future<?>> iter = pendingReads.iterator();
+         while (iter.hasNext())
+            if (iter.next().isDone())
+               iter.remove();
+         Block blk = logBlock(start);
+         Future<?> read = Page.readAsync(blk.fileName(), blk.number(), pages);
+         pendingReads.add(read);
+         return read;
+      }
+   }
+
+   /**
+    * Returns the number of the first log block in the segment
+    * that holds the specified block.
+    * @param blknum the number of a block of the log
+    * @return the number of the first block of its segment
+    */
+   int segmentStart(int blknum) {
+      return blknum - blknum % segmentBlocks;
    }
 
    /**
     * Returns an iterator for the log records,
     * which will be returned in reverse order starting with the most recent.
+    * The unwritten pages are written first, but not forced,
+    * so that the iterator can read them.
     * @see java.lang.Iterable#iterator()
     */
    public synchronized Iterator<BasicLogRecord> iterator() {
-      flush();
-      return new LogIterator(currentblk);
+      long lsn = reserved.get();
+      int last = blockOf(lsn);
+      writeThrough(last, lsn);
+      return new LogIterator(this, last);
    }
 
    /**
@@ -79,34 +393,73 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * The method also writes an integer to the end of each log record whose value
     * is the offset of the corresponding integer for the previous log record.
     * These integers allow log records to be read in reverse order.
+    * The record's bytes are reserved without locking,
+    * and are copied into the page concurrently with
+    * the records of other threads.
     * @param rec the list of values
     * @return the LSN of the final value
     */
-   public synchronized int append(Object[] rec) {
+   public long append(Object[] rec) {
       int recsize = INT_SIZE;  // 4 bytes for the integer that points to the previous log record
       for (Object obj : rec)
          recsize += size(obj);
-      if (currentpos + recsize >= BLOCK_SIZE){ // the log record doesn't fit,
-         flush();        // so move to the next block.
-         appendNewBlock();
+      long start, end;
+      while (true) {
+         start = reserved.get();
+         if (posOf(start) + recsize < blocksize) {
+            end = start + recsize;
+            if (reserved.compareAndSet(start, end))
+               break;
+         }
+         else {  // the log record doesn't fit, so move to the next block
+            end = (long) (blockOf(start) + 1) * blocksize + INT_SIZE + recsize;
+            if (appendNewBlock(start, end))
+               break;
+         }
       }
-      for (Object obj : rec)
-         appendVal(obj);
-      finalizeRecord();
-      return currentLSN();
+      Page pg = ring[blockOf(end) % ring.length];
+      int recpos = posOf(end) - recsize;
+      int pos = recpos;
+      for (Object obj : rec) {
+         appendVal(pg, pos, obj);
+         pos += size(obj);
+      }
+      pg.setInt(pos, recpos - INT_SIZE);  // the position of the previous record's integer
+      if (!filled.compareAndSet(start, end))  // an earlier record is still being copied
+         filledRanges.put(start, end);
+      advanceFilled();
+      return end;
    }
 
    /**
-    * Adds the specified value to the page at the position denoted by
-    * currentpos.  Then increments currentpos by the size of the value.
+    * Advances the filled LSN past the ranges of the records
+    * that were copied before the records that preceded them.
+    * The range that starts at the filled LSN is removed from
+    * the map by exactly one thread, which then moves the filled LSN
+    * to its end; a range added after a thread stops looking
+    * is found by the thread that added it.
+    */
+   private void advanceFilled() {
+      while (true) {
+         long lsn = filled.get();
+         Long end = filledRanges.remove(lsn);
+         if (end == null)
+            return;
+         filled.set(end);
+      }
+   }
+
+   /**
+    * Writes the specified value to the page at the specified position.
+    * @param pg the page
+    * @param pos the byte offset in the page
     * @param val the integer or string to be added to the page
     */
-   private void appendVal(Object val) {
+   private void appendVal(Page pg, int pos, Object val) {
       if (val instanceof String)
-         mypage.setString(currentpos, (String)val);
+         pg.setString(pos, (String)val);
       else
-         mypage.setInt(currentpos, (Integer)val);
-      currentpos += size(val);
+         pg.setInt(pos, (Integer)val);
    }
 
    /**
@@ -124,49 +477,194 @@ public class LogMgr implements Iterable<BasicLogRecord> {
    }
 
    /**
-    * Returns the LSN of the most recent log record.
-    * As implemented, the LSN is the block number where the record is stored.
-    * Thus every log record in a block has the same LSN.
-    * @return the LSN of the most recent log record
+    * Returns the number of the block that holds
+    * the record with the specified LSN.
+    * @param lsn an LSN
+    * @return the block number
     */
-   private int currentLSN() {
-      return currentblk.number();
+   private int blockOf(long lsn) {
+      return (int) (lsn / blocksize);
    }
 
    /**
-    * Writes the current page to the log file.
+    * Returns the position in its block of the end
+    * of the record with the specified LSN.
+    * @param lsn an LSN
+    * @return the byte offset in the block
     */
-   private void flush() {
-      mypage.write(currentblk);
+   private int posOf(long lsn) {
+      return (int) (lsn % blocksize);
    }
 
    /**
-    * Clear the current page, and append it to the log file.
+    * Writes the unwritten pages up to the block that holds the
+    * specified LSN, under the manager's lock,
+    * and then forces the log to disk without the lock,
+    * as the leader of a group commit does.
+    * Every segment written since the previous force is forced.
+    * Every record in a block has an LSN below the
+    * offset of the next block, and every record in a later block
+    * has a higher one.
+    * @param lsn the LSN that must be written
+    * @return the LSN up to which the log is then on disk
     */
-   private void appendNewBlock() {
-      setLastRecordPosition(0);
-      currentpos = INT_SIZE;
-      currentblk = mypage.append(logfile);
+   private long writeLog(long lsn) {
+      long upto;
+      int firstseg, lastseg;
+      synchronized (this) {
+         int last = blockOf(lsn);
+         upto = writeThrough(last, lsn);
+         upto = Math.min(upto, (long) (last + 1) * blocksize);
+         firstseg = unforcedSegment;
+         lastseg = last / segmentBlocks;
+         unforcedSegment = lastseg;
+      }
+      synchronized (segmentLatch) {
+         for (int segnum=Math.max(firstseg, firstSegment); segnum<=lastseg; segnum++)
+            SimpleDB.fileMgr().force(segmentFile(segnum));
+      }
+      return upto;
    }
 
    /**
-    * Sets up a circular chain of pointers to the records in the page.
-    * There is an integer added to the end of each log record
-    * whose value is the offset of the previous log record.
-    * The first four bytes of the page contain an integer whose value
-    * is the offset of the integer for the last log record in the page.
+    * Waits until the records up to the specified LSN have been
+    * copied into their pages, and then writes the unwritten
+    * pages of the ring up to the specified block
+    * with a single gathering write, without forcing them.
+    * The pointer to the last record of each page is set first.
+    * A page is complete if its block has been filled
+    * and the log has moved past it;
+    * the first page that is not complete
+    * remains unwritten, since more records may be copied into it.
+    * The caller holds the manager's lock.
+    * @param last the number of the last block to write
+    * @param lsn the LSN that must be filled
+    * @return the filled LSN, up to which the pages are written
     */
-   private void finalizeRecord() {
-      mypage.setInt(currentpos, getLastRecordPosition());
-      setLastRecordPosition(currentpos);
-      currentpos += INT_SIZE;
+   private long writeThrough(int last, long lsn) {
+      long upto;
+      while ((upto = filled.get()) < lsn)
+         Thread.yield();
+      int current = blockOf(reserved.get());
+      int count = last - firstUnwritten + 1;
+      if (count <= 0)
+         return upto;
+      Page[] pages = new Page[count];
+      boolean complete = false;
+      for (int i=0; i<count; i++) {
+         int blknum = firstUnwritten + i;
+         int slot = blknum % ring.length;
+         complete = blknum < current && upto >= (long) blknum * blocksize + ends[slot];
+         int end = complete ? ends[slot] : posOf(upto);
+         pages[i] = ring[slot];
+         pages[i].setInt(LAST_POS, end - INT_SIZE);
+      }
+      for (int i=0; i<count; ) {
+         int blknum = firstUnwritten + i;
+         int n = Math.min(count - i, segmentStart(blknum) + segmentBlocks - blknum);
+         Page.write(logBlock(blknum).fileName(), logBlock(blknum).number(),
+                    Arrays.copyOfRange(pages, i, i + n));
+         i += n;
+      }
+      firstUnwritten = complete ? last + 1 : last;
+      return upto;
    }
 
-   private int getLastRecordPosition() {
-      return mypage.getInt(LAST_POS);
+   /**
+    * Returns the name of the file of the specified segment.
+    * @param segnum the segment number
+    * @return the filename
+    */
+   private String segmentFile(int segnum) {
+      return logfile + "." + segnum;
    }
 
-   private void setLastRecordPosition(int pos) {
-      mypage.setInt(LAST_POS, pos);
+   /**
+    * Returns the numbers of the log's segment files, in order.
+    * @return the segment numbers
+    */
+   private List<Integer> segments() {
+      List<Integer> segments = new ArrayList<Integer>();
+      for (String filename : SimpleDB.fileMgr().fileNames(logfile + ".")) {
+         String suffix = filename.substring(logfile.length() + 1);
+         if (suffix.matches("[0-9]+"))
+            segments.add(Integer.parseInt(suffix));
+      }
+      Collections.sort(segments);
+      return segments;
+   }
+
+   /**
+    * Creates the specified segment, by writing its header block.
+    * The header records the oldest segment that is still needed.
+    * @param segnum the segment number
+    */
+   private void createSegment(int segnum) {
+      Page hdr = new Page();
+      hdr.setInt(SEGMENT_POS, segnum);
+      hdr.setInt(SEGMENT_BLOCKS_POS, segmentBlocks);
+      hdr.setInt(FIRST_SEGMENT_POS, firstSegment);
+      Page.write(segmentFile(segnum), 0, new Page[] {hdr});
+   }
+
+   /**
+    * Records that the log is on disk up to the specified LSN,
+    * and wakes the threads in the commit queue.
+    * The caller holds the commit queue's lock.
+    */
+   private void publish(long upto) {
+      if (upto > flushed)
+         flushed = upto;
+      commitQueue.signalAll();
+   }
+
+   /**
+    * Waits, as the leader of a group commit, until the
+    * commit queue holds a full batch or the commit delay expires.
+    * The caller holds the commit queue's lock.
+    */
+   private void gather() {
+      long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(commitDelay);
+      long nanos;
+      boolean interrupted = false;
+      while (waiting < commitBatch && (nanos = deadline - System.nanoTime()) > 0) {
+         try {
+            commitQueue.awaitNanos(nanos);
+         }
+         catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+
+   /**
+    * Moves the end of the log to the next block,
+    * reserving the specified range of it for a record.
+    * If the ring is full, then its full pages are written first.
+    * If the next block begins a segment, then the segment is created.
+    * The move is made under a latch, and only if no thread
+    * has reserved more of the current block in the meantime.
+    * The new block is not written until it is flushed
+    * or the ring fills again.
+    * @param start the LSN of the end of the log
+    * @param end the LSN of the record in the next block
+    * @return true if the log moved to the next block
+    */
+   private boolean appendNewBlock(long start, long end) {
+      synchronized (blockLatch) {
+         if (reserved.get() != start)
+            return false;
+         int last = blockOf(start);
+         synchronized (this) {
+            if (last + 1 - firstUnwritten >= ring.length)
+               writeThrough(last - 1, (long) (last - 1) * blocksize + ends[(last - 1) % ring.length]);
+         }
+         if ((last + 1) % segmentBlocks == 0)
+            createSegment((last + 1) / segmentBlocks);
+         ends[last % ring.length] = posOf(start);
+         return reserved.compareAndSet(start, end);
+      }
    }
 }
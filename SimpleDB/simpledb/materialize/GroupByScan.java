@@ -1,5 +1,6 @@
 package simpledb.materialize;
 
+import simpledb.file.Page;
 import simpledb.query.*;
 import java.util.*;
 
@@ -116,6 +117,17 @@ public class GroupByScan implements Scan {
       return (String)getVal(fldname).asJavaVal();
    }
    
+   /**
+    * Returns true if the string value of the specified field
+    * equals an encoded key.
+    * The value is not stored on a page,
+    * and so it is encoded before the comparison.
+    * @see simpledb.query.Scan#equalsString(java.lang.String, byte[])
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      return Arrays.equals(Page.encode(getString(fldname)), key);
+   }
+   
    /* Returns true if the specified field is either a 
     * grouping field or created by an aggregation function.
     * @see simpledb.query.Scan#hasField(java.lang.String)
@@ -1,7 +1,8 @@
 package simpledb.materialize;
 
-import static simpledb.file.Page.BLOCK_SIZE;
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.record.*;
 import simpledb.query.*;
 
@@ -27,11 +28,14 @@ public class MaterializePlan implements Plan {
     * This method loops through the underlying query,
     * copying its output records into a temporary table.
     * It then returns a table scan for that table.
+    * If the table is large compared to the buffer pool,
+    * then its scans are confined to a ring of buffers.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
       Schema sch = srcplan.schema();
-      TempTable temp = new TempTable(sch, tx);
+      BufferRing ring = SimpleDB.bufferMgr().ringFor(blocksAccessed());
+      TempTable temp = new TempTable(sch, tx, ring);
       Scan src = srcplan.open();
       UpdateScan dest = temp.open();
       while (src.next()) {
@@ -54,7 +58,7 @@ public class MaterializePlan implements Plan {
    public int blocksAccessed() {
       // create a dummy TableInfo object to calculate record length
       TableInfo ti = new TableInfo("", srcplan.schema());
-      double rpb = (double) (BLOCK_SIZE / ti.recordLength());
+      double rpb = (double) (SimpleDB.fileMgr().blockSize() / ti.recordLength());
       return (int) Math.ceil(srcplan.recordsOutput() / rpb);
    }
    
@@ -27,11 +27,15 @@ public class RecordComparator implements Comparator<Scan> {
     * of the comparison.
     * If the two records have the same values for all
     * sort fields, then the method returns 0.
+    * When both scans are table scans, as they are when
+    * sorted runs are merged, the fields are compared in place.
     * @param s1 the first scan
     * @param s2 the second scan
     * @return the result of comparing each scan's current record according to the field list
     */
    public int compare(Scan s1, Scan s2) {
+      if (s1 instanceof TableScan && s2 instanceof TableScan)
+         return compare((TableScan) s1, (TableScan) s2);
       for (String fldname : fields) {
          Constant val1 = s1.getVal(fldname);
          Constant val2 = s2.getVal(fldname);
@@ -41,4 +45,13 @@ public class RecordComparator implements Comparator<Scan> {
       }
       return 0;
    }
+   
+   private int compare(TableScan s1, TableScan s2) {
+      for (String fldname : fields) {
+         int result = s1.compareField(fldname, s2);
+         if (result != 0)
+            return result;
+      }
+      return 0;
+   }
 }
@@ -104,6 +104,15 @@ public class RemoveDuplicatesScan implements Scan {
       return s1.getString(fldname);
    }
    
+   /**
+    * Compares the string value of the specified field
+    * of the scan with an encoded key.
+    * @see simpledb.query.Scan#equalsString(java.lang.String, byte[])
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      return s1.equalsString(fldname, key);
+   }
+   
    /**
     * Returns true if the specified field is in the current scan.
     * @see simpledb.query.Scan#hasField(java.lang.String)
@@ -1,6 +1,8 @@
 package simpledb.materialize;
 
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.record.*;
 import simpledb.query.*;
 
@@ -33,14 +35,36 @@ public class SortPlan implements Plan {
     * This method is where most of the action is.
     * Up to 2 sorted temporary tables are created,
     * and are passed into SortScan for final merging.
+    * If the sorted table is large compared to the buffer pool,
+    * then the scans of all of the temporary tables
+    * are confined to a single ring of buffers.
+    * <p>
+    * Each merge combines as many runs as the buffers that
+    * the transaction is granted allow: one buffer for each
+    * input run, and two for the output run, which keeps its
+    * current block pinned while it appends the next one.
+    * The fan-in is chosen from the number of available buffers
+    * before any are reserved, so that only the buffers
+    * the merge will use are taken from the pool.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
+      BufferRing ring = SimpleDB.bufferMgr().ringFor(blocksAccessed());
       Scan src = p.open();
-      List<TempTable> runs = splitIntoRuns(src);
+      List<TempTable> runs = splitIntoRuns(src, ring);
       src.close();
-      while (runs.size() > 2)
-         runs = doAMergeIteration(runs);
+      if (runs.size() > 2) {
+         int target = Math.min(runs.size(), SimpleDB.bufferMgr().available() - 2);
+         int granted = tx.reserveBuffers(Math.max(2, target) + 2);
+         try {
+            int fanin = Math.max(2, granted - 2);
+            while (runs.size() > 2)
+               runs = doAMergeIteration(runs, fanin, ring);
+         }
+         finally {
+            tx.releaseBuffers(granted);
+         }
+      }
       return new SortScan(runs, comp);
    }
    
@@ -86,19 +110,19 @@ public class SortPlan implements Plan {
       return sch;
    }
    
-   private List<TempTable> splitIntoRuns(Scan src) {
+   private List<TempTable> splitIntoRuns(Scan src, BufferRing ring) {
       List<TempTable> temps = new ArrayList<TempTable>();
       src.beforeFirst();
       if (!src.next())
          return temps;
-      TempTable currenttemp = new TempTable(sch, tx);
+      TempTable currenttemp = new TempTable(sch, tx, ring);
       temps.add(currenttemp);
       UpdateScan currentscan = currenttemp.open();
       while (copy(src, currentscan))
          if (comp.compare(src, currentscan) < 0) {
          // start a new run
          currentscan.close();
-         currenttemp = new TempTable(sch, tx);
+         currenttemp = new TempTable(sch, tx, ring);
          temps.add(currenttemp);
          currentscan = (UpdateScan) currenttemp.open();
       }
@@ -106,40 +130,42 @@ public class SortPlan implements Plan {
       return temps;
    }
    
-   private List<TempTable> doAMergeIteration(List<TempTable> runs) {
+   private List<TempTable> doAMergeIteration(List<TempTable> runs, int fanin, BufferRing ring) {
       List<TempTable> result = new ArrayList<TempTable>();
       while (runs.size() > 1) {
-         TempTable p1 = runs.remove(0);
-         TempTable p2 = runs.remove(0);
-         result.add(mergeTwoRuns(p1, p2));
+         List<TempTable> group = new ArrayList<TempTable>();
+         while (group.size() < fanin && !runs.isEmpty())
+            group.add(runs.remove(0));
+         result.add(mergeRuns(group, ring));
       }
       if (runs.size() == 1)
          result.add(runs.get(0));
       return result;
    }
    
-   private TempTable mergeTwoRuns(TempTable p1, TempTable p2) {
-      Scan src1 = p1.open();
-      Scan src2 = p2.open();
-      TempTable result = new TempTable(sch, tx);
+   /**
+    * Merges the specified runs into a new run.
+    * The scans of the runs are kept in a priority queue,
+    * ordered by their current records.
+    */
+   private TempTable mergeRuns(List<TempTable> group, BufferRing ring) {
+      PriorityQueue<Scan> srcs = new PriorityQueue<Scan>(group.size(), comp);
+      for (TempTable run : group) {
+         Scan src = run.open();
+         if (src.next())
+            srcs.add(src);
+         else
+            src.close();
+      }
+      TempTable result = new TempTable(sch, tx, ring);
       UpdateScan dest = result.open();
-      
-      boolean hasmore1 = src1.next();
-      boolean hasmore2 = src2.next();
-      while (hasmore1 && hasmore2)
-         if (comp.compare(src1, src2) < 0)
-         hasmore1 = copy(src1, dest);
-      else
-         hasmore2 = copy(src2, dest);
-      
-      if (hasmore1)
-         while (hasmore1)
-         hasmore1 = copy(src1, dest);
-      else
-         while (hasmore2)
-         hasmore2 = copy(src2, dest);
-      src1.close();
-      src2.close();
+      while (!srcs.isEmpty()) {
+         Scan src = srcs.poll();
+         if (copy(src, dest))
+            srcs.add(src);
+         else
+            src.close();
+      }
       dest.close();
       return result;
    }
@@ -118,6 +118,15 @@ public class SortScan implements Scan {
       return currentscan.getString(fldname);
    }
    
+   /**
+    * Compares the string value of the specified field
+    * of the current scan with an encoded key.
+    * @see simpledb.query.Scan#equalsString(java.lang.String, byte[])
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      return currentscan.equalsString(fldname, key);
+   }
+   
    /**
     * Returns true if the specified field is in the current scan.
     * @see simpledb.query.Scan#hasField(java.lang.String)
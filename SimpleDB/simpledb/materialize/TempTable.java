@@ -1,6 +1,7 @@
 package simpledb.materialize;
 
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.record.*;
 import simpledb.query.*;
 
@@ -15,6 +16,7 @@ public class TempTable {
    private static int nextTableNum = 0;
    private TableInfo ti;
    private Transaction tx;
+   private BufferRing ring;
    
    /**
     * Allocates a name for for a new temporary table
@@ -23,16 +25,29 @@ public class TempTable {
     * @param tx the calling transaction
     */
    public TempTable(Schema sch, Transaction tx) {
+      this(sch, tx, null);
+   }
+   
+   /**
+    * Allocates a name for for a new temporary table
+    * having the specified schema, whose scans are confined
+    * to the specified ring of buffers.
+    * @param sch the new table's schema
+    * @param tx the calling transaction
+    * @param ring the ring, or null if the scans are to use the whole pool
+    */
+   public TempTable(Schema sch, Transaction tx, BufferRing ring) {
       String tblname = nextTableName();
       ti = new TableInfo(tblname, sch);
       this.tx = tx;
+      this.ring = ring;
    }
    
    /**
     * Opens a table scan for the temporary table.
     */
    public UpdateScan open() {
-      return new TableScan(ti, tx);
+      return new TableScan(ti, tx, ring);
    }
    
    /**
@@ -47,4 +62,4 @@ public class TempTable {
       nextTableNum++;
       return "temp" + nextTableNum;
    }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,7 +1,6 @@
 package simpledb.metadata;
 
 import static java.sql.Types.INTEGER;
-import static simpledb.file.Page.BLOCK_SIZE;
 import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
@@ -62,7 +61,7 @@ public class IndexInfo {
     * @return the number of block accesses required to traverse the index
     */
    public int blocksAccessed() {
-      int rpb = BLOCK_SIZE / ti.recordLength();
+      int rpb = SimpleDB.fileMgr().blockSize() / ti.recordLength();
       int numblocks = si.recordsOutput() / rpb;
       // Call HashIndex.searchCost for hash indexing
       return HashIndex.searchCost(numblocks, rpb);
@@ -1,7 +1,9 @@
 package simpledb.metadata;
 
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
+import simpledb.buffer.BufferRing;
 import java.util.*;
 
 /**
@@ -10,6 +12,8 @@ import java.util.*;
  * The manager does not store this information in the database.
  * Instead, it calculates this information on system startup,
  * and periodically refreshes it.
+ * The scan of a large table is confined to a ring of buffers,
+ * so that a refresh does not flush the buffer pool.
  * @author Edward Sciore
  */
 class StatMgr {
@@ -63,7 +67,8 @@ class StatMgr {
    
    private synchronized StatInfo calcTableStats(TableInfo ti, Transaction tx) {
       int numRecs = 0;
-      RecordFile rf = new RecordFile(ti, tx);
+      BufferRing ring = SimpleDB.bufferMgr().ringFor(tx.size(ti.fileName()));
+      RecordFile rf = new RecordFile(ti, tx, ring);
       int numblocks = 0;
       while (rf.next()) {
          numRecs++;
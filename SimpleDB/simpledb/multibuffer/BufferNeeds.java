@@ -19,7 +19,20 @@ public class BufferNeeds {
     * @return the highest number less than the number of available buffers, that is a root of the plan's output size
     */
    public static int bestRoot(int size) {
-      int avail = SimpleDB.bufferMgr().available();
+      return bestRoot(size, SimpleDB.bufferMgr().available());
+   }
+   
+   /**
+    * This method considers the various roots
+    * of the specified output size (in blocks),
+    * and returns the highest root that is no more than
+    * the specified number of buffers, such as the number
+    * granted by {@link simpledb.tx.Transaction#reserveBuffers(int)}.
+    * @param size the size of the output file
+    * @param avail the number of buffers
+    * @return the highest root of the plan's output size that is no more than the number of buffers
+    */
+   public static int bestRoot(int size, int avail) {
       if (avail <= 1)
          return 1;
       int k = Integer.MAX_VALUE;
@@ -40,7 +53,20 @@ public class BufferNeeds {
     * @return the highest number less than the number of available buffers, that is a factor of the plan's output size
     */
    public static int bestFactor(int size) {
-      int avail = SimpleDB.bufferMgr().available();
+      return bestFactor(size, SimpleDB.bufferMgr().available());
+   }
+   
+   /**
+    * This method considers the various factors
+    * of the specified output size (in blocks),
+    * and returns the highest factor that is no more than
+    * the specified number of buffers, such as the number
+    * granted by {@link simpledb.tx.Transaction#reserveBuffers(int)}.
+    * @param size the size of the output file
+    * @param avail the number of buffers
+    * @return the highest factor of the plan's output size that is no more than the number of buffers
+    */
+   public static int bestFactor(int size, int avail) {
       if (avail <= 1)
          return 1;
       int k = size;
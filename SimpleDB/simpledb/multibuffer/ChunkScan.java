@@ -21,6 +21,8 @@ public class ChunkScan implements Scan {
    
    /**
     * Creates a chunk consisting of the specified pages. 
+    * The blocks of the chunk are prefetched before they are pinned,
+    * so that they are read by a single vectored read.
     * @param ti the metadata for the chunked table
     * @param startbnum the starting block number
     * @param endbnum  the ending block number
@@ -32,10 +34,12 @@ public class ChunkScan implements Scan {
       this.endbnum   = endbnum;
       this.sch = ti.schema();
       String filename = ti.fileName();
-      for (int i=startbnum; i<=endbnum; i++) {
-         Block blk = new Block(filename, i);
+      Block[] blks = new Block[endbnum - startbnum + 1];
+      for (int i=startbnum; i<=endbnum; i++)
+         blks[i - startbnum] = new Block(filename, i);
+      tx.prefetch(blks);
+      for (Block blk : blks)
          pages.add(new RecordPage(blk, ti, tx));
-      }
       beforeFirst();
    }
    
@@ -96,6 +100,13 @@ public class ChunkScan implements Scan {
       return rp.getString(fldname);
    }
    
+   /**
+    * @see simpledb.query.Scan#equalsString(java.lang.String, byte[])
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      return rp.equalsString(fldname, key);
+   }
+   
    /**
     * @see simpledb.query.Scan#hasField(java.lang.String)
     */
@@ -108,4 +119,4 @@ public class ChunkScan implements Scan {
       rp = pages.get(current - startbnum);
       rp.moveToId(-1);
    }
-}
\ No newline at end of file
+}
\ No newline at end of file
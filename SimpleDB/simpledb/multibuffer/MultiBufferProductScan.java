@@ -1,5 +1,6 @@
 package simpledb.multibuffer;
 
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.record.TableInfo;
 import simpledb.query.*;
@@ -13,11 +14,18 @@ public class MultiBufferProductScan implements Scan {
    private Scan lhsscan, rhsscan=null, prodscan;
    private TableInfo ti;
    private Transaction tx;
-   private int chunksize, nextblknum, filesize;
+   private int chunksize, nextblknum, filesize, reserved;
    
    
    /**
     * Creates the scan class for the product of the LHS scan and a table.
+    * The chunk size is chosen from the number of available buffers,
+    * and the scan then reserves buffers for a chunk, and one more for
+    * the LHS scan; reserving more than that would evict pages
+    * from the pool for nothing.
+    * If fewer buffers are granted, then the chunks are sized
+    * from the number granted, and any excess is released at once.
+    * The rest are released when the scan is closed.
     * @param lhsscan the LHS scan
     * @param ti the metadata for the RHS table
     * @param tx the current transaction
@@ -27,7 +35,11 @@ public class MultiBufferProductScan implements Scan {
       this.ti = ti;
       this.tx = tx;
       filesize = tx.size(ti.fileName());
-      chunksize = BufferNeeds.bestFactor(filesize);
+      int target = BufferNeeds.bestFactor(filesize, SimpleDB.bufferMgr().available() - 1);
+      int granted = tx.reserveBuffers(target + 1);
+      chunksize = Math.min(target, BufferNeeds.bestFactor(filesize, granted - 1));
+      reserved = Math.min(granted, chunksize + 1);
+      tx.releaseBuffers(granted - reserved);
       beforeFirst();
    }
    
@@ -63,6 +75,8 @@ public class MultiBufferProductScan implements Scan {
     */
    public void close() {
       prodscan.close();
+      tx.releaseBuffers(reserved);
+      reserved = 0;
    }
    
    /** 
@@ -95,6 +109,16 @@ public class MultiBufferProductScan implements Scan {
       return prodscan.getString(fldname);
    }
    
+   /** 
+    * Compares the string value of the specified field with an encoded key.
+    * The value is obtained from whichever scan
+    * contains the field.
+    * @see simpledb.query.Scan#equalsString(java.lang.String, byte[])
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      return prodscan.equalsString(fldname, key);
+   }
+   
    /**
     * Returns true if the specified field is in
     * either of the underlying scans.
@@ -97,6 +97,19 @@ public class ProductScan implements Scan {
          return s2.getString(fldname);
    }
    
+   /** 
+    * Compares the string value of the specified field with an encoded key.
+    * The value is obtained from whichever scan
+    * contains the field.
+    * @see simpledb.query.Scan#equalsString(java.lang.String, byte[])
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      if (s1.hasField(fldname))
+         return s1.equalsString(fldname, key);
+      else
+         return s2.equalsString(fldname, key);
+   }
+   
    /**
     * Returns true if the specified field is in
     * either of the underlying scans.
@@ -48,6 +48,17 @@ public interface Scan {
     */
    public String   getString(String fldname);
    
+   /**
+    * Returns true if the value of the specified string field
+    * in the current record equals an encoded key.
+    * Scans over stored records compare the field's bytes in place,
+    * without materializing the string.
+    * @param fldname the name of the field
+    * @param key the key, as encoded by {@link simpledb.file.Page#encode(String)}
+    * @return true if the field's value equals the key
+    */
+   public boolean  equalsString(String fldname, byte[] key);
+   
    /**
     * Returns true if the scan has the specified field.
     * @param fldname the name of the field
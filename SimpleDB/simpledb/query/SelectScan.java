@@ -60,6 +60,10 @@ public class SelectScan implements UpdateScan {
       return s.getString(fldname);
    }
    
+   public boolean equalsString(String fldname, byte[] key) {
+      return s.equalsString(fldname, key);
+   }
+   
    public boolean hasField(String fldname) {
       return s.hasField(fldname);
    }
@@ -1,11 +1,14 @@
 package simpledb.query;
 
+import simpledb.file.Page;
+
 /**
  * The class that wraps Java strings as database constants.
  * @author Edward Sciore
  */
 public class StringConstant implements Constant {
    private String val;
+   private byte[] bytes = null;
    
    /**
     * Create a constant by wrapping the specified string.
@@ -23,6 +26,19 @@ public class StringConstant implements Constant {
       return val;
    }
    
+   /**
+    * Returns the string encoded in the charset used by pages.
+    * The encoding is computed once, and is suitable for
+    * comparing the constant with stored strings in place.
+    * @return the encoded string
+    * @see simpledb.file.Page#encode(String)
+    */
+   public byte[] asBytes() {
+      if (bytes == null)
+         bytes = Page.encode(val);
+      return bytes;
+   }
+   
    public boolean equals(Object obj) {
       StringConstant sc = (StringConstant) obj;
       return sc != null && val.equals(sc.val);
@@ -2,6 +2,7 @@ package simpledb.query;
 
 import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.metadata.*;
 import simpledb.record.*;
 
@@ -27,10 +28,13 @@ public class TablePlan implements Plan {
    
    /**
     * Creates a table scan for this query.
+    * If the table is large compared to the buffer pool,
+    * then the scan is confined to a ring of buffers.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
-      return new TableScan(ti, tx);
+      BufferRing ring = SimpleDB.bufferMgr().ringFor(blocksAccessed());
+      return new TableScan(ti, tx, ring);
    }
    
    /**
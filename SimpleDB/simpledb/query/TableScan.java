@@ -2,6 +2,7 @@ package simpledb.query;
 
 import static java.sql.Types.INTEGER;
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.record.*;
 
 /**
@@ -23,7 +24,19 @@ public class TableScan implements UpdateScan {
     * @param tx the calling transaction
     */
    public TableScan(TableInfo ti, Transaction tx) {
-      rf  = new RecordFile(ti, tx);
+      this(ti, tx, null);
+   }
+   
+   /**
+    * Creates a new table scan whose sequential accesses
+    * are confined to the specified ring of buffers,
+    * and opens its corresponding record file. 
+    * @param ti the table's metadata
+    * @param tx the calling transaction
+    * @param ring the ring, or null if the scan is to use the whole pool
+    */
+   public TableScan(TableInfo ti, Transaction tx, BufferRing ring) {
+      rf  = new RecordFile(ti, tx, ring);
       sch = ti.schema();
    }
    
@@ -63,10 +76,34 @@ public class TableScan implements UpdateScan {
       return rf.getString(fldname);
    }
    
+   public boolean equalsString(String fldname, byte[] key) {
+      return rf.equalsString(fldname, key);
+   }
+   
    public boolean hasField(String fldname) {
       return sch.hasField(fldname);
    }
    
+   /**
+    * Compares the value of the specified field in the current record
+    * with its value in the current record of another table scan.
+    * Integers are compared directly, and strings are compared
+    * in place; no constants are created.
+    * @param fldname the name of the field
+    * @param other the other table scan
+    * @return a negative value, zero, or a positive value
+    * as this record's value is less than, equal to, or greater than the other's
+    */
+   public int compareField(String fldname, TableScan other) {
+      if (sch.type(fldname) == INTEGER) {
+         int val = rf.getInt(fldname);
+         int otherval = other.rf.getInt(fldname);
+         return (val < otherval) ? -1 : ((val == otherval) ? 0 : 1);
+      }
+      else
+         return rf.compareString(fldname, other.rf);
+   }
+   
    // UpdateScan methods
    
    /**
@@ -108,10 +108,17 @@ public class Term {
     * Returns true if both of the term's expressions
     * evaluate to the same constant,
     * with respect to the specified scan.
+    * If the term equates a field with a string constant,
+    * then the field is compared with the constant in place,
+    * without retrieving its value.
     * @param s the scan
     * @return true if both expressions have the same value in the scan
     */
    public boolean isSatisfied(Scan s) {
+      if (lhs.isFieldName() && isStringConstant(rhs))
+         return s.equalsString(lhs.asFieldName(), ((StringConstant) rhs.asConstant()).asBytes());
+      if (rhs.isFieldName() && isStringConstant(lhs))
+         return s.equalsString(rhs.asFieldName(), ((StringConstant) lhs.asConstant()).asBytes());
       Constant lhsval = lhs.evaluate(s);
       Constant rhsval = rhs.evaluate(s);
       return rhsval.equals(lhsval);
@@ -120,4 +127,8 @@ public class Term {
    public String toString() {
       return lhs.toString() + "=" + rhs.toString();
    }
+   
+   private boolean isStringConstant(Expression exp) {
+      return exp.isConstant() && exp.asConstant() instanceof StringConstant;
+   }
 }
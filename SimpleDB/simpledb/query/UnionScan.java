@@ -97,6 +97,19 @@ public class UnionScan implements Scan {
                   return s2.getString(fieldMatch.get(fldname));
    }
    
+   /** 
+    * Compares the string value of the specified field with an encoded key.
+    * The value is obtained from whichever scan
+    * is currently active.
+    * @see simpledb.query.Scan#equalsString(java.lang.String, byte[])
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      if (onS1)
+         return s1.equalsString(fldname, key);
+      else
+         return s2.equalsString(fieldMatch.get(fldname), key);
+   }
+   
    /**
     * Returns true if the specified field is in
     * both of the underlying scans.
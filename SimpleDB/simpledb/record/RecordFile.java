@@ -1,12 +1,21 @@
 package simpledb.record;
 
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 
 /**
  * Manages a file of records.
  * There are methods for iterating through the records
  * and accessing their contents.
+ * When the records are iterated through sequentially,
+ * the buffer manager detects the sequential pins
+ * and reads the following blocks ahead of them.
+ * A record file that is read by a large scan can be given
+ * a {@link BufferRing ring}, which confines the blocks that it
+ * reads sequentially to a few buffers, so that the scan does not
+ * replace the rest of the pool; blocks that are reached by
+ * {@link #moveToRid(RID)} do not use the ring.
  * @author Edward Sciore
  */
 public class RecordFile {
@@ -15,6 +24,7 @@ public class RecordFile {
    private String filename;
    private RecordPage rp;
    private int currentblknum;
+   private BufferRing ring;
    
    /**
     * Constructs an object to manage a file of records.
@@ -23,12 +33,25 @@ public class RecordFile {
     * @param tx the transaction
     */
    public RecordFile(TableInfo ti, Transaction tx) {
+      this(ti, tx, null);
+   }
+   
+   /**
+    * Constructs an object to manage a file of records,
+    * whose sequential accesses are confined to the specified ring.
+    * If the file does not exist, it is created.
+    * @param ti the table metadata
+    * @param tx the transaction
+    * @param ring the ring, or null if the file is to use the whole pool
+    */
+   public RecordFile(TableInfo ti, Transaction tx, BufferRing ring) {
       this.ti = ti;
       this.tx = tx;
+      this.ring = ring;
       filename = ti.fileName();
       if (tx.size(filename) == 0)
          appendBlock();
-      moveTo(0);
+      moveTo(0, ring);
    }
    
    /**
@@ -43,7 +66,7 @@ public class RecordFile {
     * will wind up at the first record. 
     */
    public void beforeFirst() {
-      moveTo(0);
+      moveTo(0, ring);
    }
    
    /**
@@ -57,7 +80,7 @@ public class RecordFile {
             return true;
          if (atLastBlock())
             return false;
-         moveTo(currentblknum + 1);
+         moveTo(currentblknum + 1, ring);
       }
    }
    
@@ -81,6 +104,30 @@ public class RecordFile {
       return rp.getString(fldname);
    }
    
+   /**
+    * Returns true if the value of the specified string field
+    * in the current record equals an encoded key.
+    * @param fldname the name of the field
+    * @param key the key, as encoded by {@link simpledb.file.Page#encode(String)}
+    * @return true if the field's value equals the key
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      return rp.equalsString(fldname, key);
+   }
+   
+   /**
+    * Compares the value of the specified string field in the
+    * current record with its value in the current record
+    * of another record file.
+    * @param fldname the name of the field
+    * @param other the other record file
+    * @return a negative value, zero, or a positive value
+    * as this record's value is less than, equal to, or greater than the other's
+    */
+   public int compareString(String fldname, RecordFile other) {
+      return rp.compareString(fldname, other.rp);
+   }
+   
    /**
     * Sets the value of the specified field 
     * in the current record.
@@ -122,7 +169,7 @@ public class RecordFile {
       while (!rp.insert()) {
          if (atLastBlock())
             appendBlock();
-         moveTo(currentblknum + 1);
+         moveTo(currentblknum + 1, ring);
       }
    }
    
@@ -132,7 +179,7 @@ public class RecordFile {
     * @param rid a record identifier
     */
    public void moveToRid(RID rid) {
-      moveTo(rid.blockNumber());
+      moveTo(rid.blockNumber(), null);
       rp.moveToId(rid.id());
    }
    
@@ -145,12 +192,12 @@ public class RecordFile {
       return new RID(currentblknum, id);
    }
    
-   private void moveTo(int b) {
+   private void moveTo(int b, BufferRing ring) {
       if (rp != null)
          rp.close();
       currentblknum = b;
       Block blk = new Block(filename, currentblknum);
-      rp = new RecordPage(blk, ti, tx);
+      rp = new RecordPage(blk, ti, tx, ring);
    }
    
    private boolean atLastBlock() {
@@ -159,6 +206,6 @@ public class RecordFile {
    
    private void appendBlock() {
       RecordFormatter fmtr = new RecordFormatter(ti);
-      tx.append(filename, fmtr);
+      tx.append(filename, fmtr, ring);
    }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -5,6 +5,7 @@ import static simpledb.file.Page.*;
 import static simpledb.record.RecordPage.EMPTY;
 import simpledb.file.Page;
 import simpledb.buffer.PageFormatter;
+import simpledb.server.SimpleDB;
 
 /**
  * An object that can format a page to look like a block of 
@@ -32,7 +33,8 @@ class RecordFormatter implements PageFormatter {
     */
    public void format(Page page) {
       int recsize = ti.recordLength() + INT_SIZE;
-      for (int pos=0; pos+recsize<=BLOCK_SIZE; pos += recsize) {
+      int blocksize = SimpleDB.fileMgr().blockSize();
+      for (int pos=0; pos+recsize<=blocksize; pos += recsize) {
          page.setInt(pos, EMPTY);
          makeDefaultRecord(page, pos);
       }
@@ -2,6 +2,8 @@ package simpledb.record;
 
 import static simpledb.file.Page.*;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 
 /**
@@ -15,6 +17,7 @@ public class RecordPage {
    private TableInfo ti;
    private Transaction tx;
    private int slotsize;
+   private int blocksize;
    private int currentslot = -1;
    
    /** Creates the record manager for the specified block.
@@ -24,11 +27,23 @@ public class RecordPage {
      * @param tx the transaction performing the operations
      */
    public RecordPage(Block blk, TableInfo ti, Transaction tx) {
+      this(blk, ti, tx, null);
+   }
+   
+   /** Creates the record manager for the specified block,
+     * on behalf of a scan that is confined to the specified ring.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     * @param ring the scan's ring, or null if the scan has none
+     */
+   public RecordPage(Block blk, TableInfo ti, Transaction tx, BufferRing ring) {
       this.blk = blk;
       this.ti = ti;
       this.tx = tx;
       slotsize = ti.recordLength() + INT_SIZE;
-      tx.pin(blk);
+      blocksize = SimpleDB.fileMgr().blockSize();
+      tx.pin(blk, ring);
   }
    
    /**
@@ -71,6 +86,33 @@ public class RecordPage {
       return tx.getString(blk, position);
    }
    
+   /**
+    * Returns true if the string stored in the specified
+    * field of the current record equals an encoded key.
+    * @param fldname the name of the field
+    * @param key the key, as encoded by {@link simpledb.file.Page#encode(String)}
+    * @return true if the field's value equals the key
+    */
+   public boolean equalsString(String fldname, byte[] key) {
+      int position = fieldpos(fldname);
+      return tx.equalsString(blk, position, key);
+   }
+   
+   /**
+    * Compares the string stored in the specified field of
+    * the current record with the string stored in the same field
+    * of the current record of another record page.
+    * @param fldname the name of the field
+    * @param other the other record page
+    * @return a negative value, zero, or a positive value
+    * as this record's value is less than, equal to, or greater than the other's
+    */
+   public int compareString(String fldname, RecordPage other) {
+      int position = fieldpos(fldname);
+      int otherposition = other.fieldpos(fldname);
+      return tx.compareString(blk, position, other.blk, otherposition);
+   }
+   
    /**
     * Stores an integer at the specified field
     * of the current record.
@@ -146,17 +188,30 @@ public class RecordPage {
    }
    
    private boolean isValidSlot() {
-      return currentpos() + slotsize <= BLOCK_SIZE;
+      return currentpos() + slotsize <= blocksize;
    }
    
+   /**
+    * Moves to the next slot having the specified flag.
+    * The slots are examined in a single operation on the block,
+    * so that the block is locked and latched only once.
+    */
    private boolean searchFor(int flag) {
       currentslot++;
-      while (isValidSlot()) {
-         int position = currentpos();
-         if (tx.getInt(blk, position) == flag)
-            return true;
-         currentslot++;
+      if (!isValidSlot())
+         return false;
+      tx.beginOperation(blk, false);
+      try {
+         while (isValidSlot()) {
+            int position = currentpos();
+            if (tx.getInt(blk, position) == flag)
+               return true;
+            currentslot++;
+         }
+         return false;
+      }
+      finally {
+         tx.endOperation();
       }
-      return false;
    }
 }
@@ -7,9 +7,19 @@ import java.rmi.*;
  * The method is similar to that of Driver, 
  * except that it takes no arguments and
  * throws RemoteExceptions instead of SQLExceptions.
+ * The interface also has administrative methods,
+ * which have no counterpart in Driver.
  * @author Edward Sciore
  */
 public interface RemoteDriver extends Remote  {
    public RemoteConnection connect() throws RemoteException;
+   
+   /**
+    * Changes the number of buffers in the server's buffer pool.
+    * @param numbuffers the new number of buffers
+    * @return the number of buffers in the pool
+    * @throws RemoteException
+    */
+   public int resizeBufferPool(int numbuffers) throws RemoteException;
 }
 
@@ -1,5 +1,6 @@
 package simpledb.remote;
 
+import simpledb.server.SimpleDB;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 
@@ -20,5 +21,13 @@ public class RemoteDriverImpl extends UnicastRemoteObject implements RemoteDrive
    public RemoteConnection connect() throws RemoteException {
       return new RemoteConnectionImpl();
    }
+   
+   /**
+    * Resizes the server's buffer pool.
+    * @see simpledb.remote.RemoteDriver#resizeBufferPool(int)
+    */
+   public int resizeBufferPool(int numbuffers) throws RemoteException {
+      return SimpleDB.resizeBufferPool(numbuffers);
+   }
 }
 
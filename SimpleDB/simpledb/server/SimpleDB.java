@@ -24,7 +24,22 @@ import simpledb.index.planner.IndexUpdatePlanner;
  */
 public class SimpleDB {
    public static int BUFFER_SIZE = 8;
-   public static String LOG_FILE = "simpledb.log";
+   public static int BLOCK_SIZE = FileMgr.DEFAULT_BLOCK_SIZE; // used only when creating a database
+   public static String LOG_FILE = "simpledb.log"; // the segments are simpledb.log.0, simpledb.log.1, ...
+   public static int LOG_BUFFERS = LogMgr.DEFAULT_LOG_BUFFERS; // pages in the ring of log pages
+   public static int LOG_SEGMENT_BLOCKS = LogMgr.DEFAULT_SEGMENT_BLOCKS; // used only when creating a log
+   public static long LOG_COMMIT_DELAY = LogMgr.DEFAULT_COMMIT_DELAY; // microseconds; 0 disables waiting
+   public static int LOG_COMMIT_BATCH = LogMgr.DEFAULT_COMMIT_BATCH;
+   public static boolean MAPPED_IO = false;
+   public static String BUFFER_POLICY = "lru"; // "lru", "clock", "lru-k" or "2q"
+   public static int BUFFER_SHARDS = Runtime.getRuntime().availableProcessors();
+   public static long BUFFER_TIMEOUT = BufferMgr.DEFAULT_MAX_TIME; // milliseconds
+   public static int READ_AHEAD_BLOCKS = BufferMgr.DEFAULT_READ_AHEAD; // 0 disables read-ahead
+   public static double CLEANER_TARGET = 0.25; // fraction of unpinned buffers kept clean
+   public static int CLEANER_RATE = 2000; // pages per second; 0 disables the cleaner
+   public static int SCAN_RING_SIZE = BufferMgr.DEFAULT_RING_SIZE; // 0 disables scan rings
+   public static double SCAN_RING_THRESHOLD = BufferMgr.DEFAULT_RING_THRESHOLD; // fraction of the pool
+   public static String WARM_UP_FILE = "simpledb.warm"; // null disables warm-up
    
    private static FileMgr     fm;
    private static BufferMgr   bm;
@@ -59,7 +74,7 @@ public class SimpleDB {
     * @param dirname the name of the database directory
     */
    public static void initFileMgr(String dirname) {
-      fm = new FileMgr(dirname);
+      fm = new FileMgr(dirname, BLOCK_SIZE, MAPPED_IO);
    }
    
    /**
@@ -68,7 +83,8 @@ public class SimpleDB {
     */
    public static void initFileAndLogMgr(String dirname) {
       initFileMgr(dirname);
-      logm = new LogMgr(LOG_FILE);
+      logm = new LogMgr(LOG_FILE, LOG_BUFFERS, LOG_SEGMENT_BLOCKS);
+      logm.setGroupCommit(LOG_COMMIT_DELAY, LOG_COMMIT_BATCH);
    }
    
    /**
@@ -77,7 +93,18 @@ public class SimpleDB {
     */
    public static void initFileLogAndBufferMgr(String dirname) {
       initFileAndLogMgr(dirname);
-      bm = new BufferMgr(BUFFER_SIZE);
+      if (bm != null) {
+         bm.stopCleaner();
+         bm.stopWarmUp();
+      }
+      bm = new BufferMgr(BUFFER_SIZE, BUFFER_POLICY, BUFFER_SHARDS);
+      bm.setMaxWaitTime(BUFFER_TIMEOUT);
+      bm.setReadAhead(READ_AHEAD_BLOCKS);
+      bm.setScanRing(SCAN_RING_SIZE, SCAN_RING_THRESHOLD);
+      if (CLEANER_RATE > 0)
+         bm.startCleaner(CLEANER_TARGET, CLEANER_RATE);
+      if (WARM_UP_FILE != null)
+         bm.startWarmUp(fm.readBlockList(WARM_UP_FILE));
    }
    
    /**
@@ -90,6 +117,48 @@ public class SimpleDB {
       mdm = new MetadataMgr(isnew, tx);
    }
    
+   /**
+    * Changes the number of buffers in the buffer pool
+    * while the system is running.
+    * The new size is also used if the buffer manager
+    * is initialized again.
+    * @param numbuffers the new number of buffers
+    * @return the number of buffers in the pool
+    * @see BufferMgr#resize(int)
+    */
+   public static int resizeBufferPool(int numbuffers) {
+      try {
+         return bm.resize(numbuffers);
+      }
+      finally {
+         BUFFER_SIZE = bm.size();
+      }
+   }
+   
+   /**
+    * Saves the list of blocks in the buffer pool, so that
+    * the pool can be warmed up with them when the system restarts.
+    * This method is called at each checkpoint and at shutdown.
+    * Nothing is saved while the pool is still being warmed up,
+    * since the saved list then describes the pool's working set
+    * better than its current contents do.
+    */
+   public static void saveResidentSet() {
+      if (WARM_UP_FILE != null && !bm.isWarmingUp())
+         fm.writeBlockList(WARM_UP_FILE, bm.residentBlocks());
+   }
+   
+   /**
+    * Shuts the system down, by saving the list of blocks
+    * in the buffer pool and stopping the buffer manager's
+    * background threads.
+    */
+   public static void shutdown() {
+      saveResidentSet();
+      bm.stopWarmUp();
+      bm.stopCleaner();
+   }
+   
    public static FileMgr     fileMgr()   { return fm; }
    public static BufferMgr   bufferMgr() { return bm; }
    public static LogMgr      logMgr()    { return logm; }
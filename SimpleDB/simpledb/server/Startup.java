@@ -6,7 +6,14 @@ import java.rmi.*;
 public class Startup {
    public static void main(String args[]) throws Exception {
       // configure and initialize the database
+      if (args.length > 1)
+         SimpleDB.BUFFER_SIZE = Integer.parseInt(args[1]);
       SimpleDB.init(args[0]);
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         public void run() {
+            SimpleDB.shutdown();
+         }
+      });
       
       // post the server entry in the rmi registry
       RemoteDriver d = new RemoteDriverImpl();
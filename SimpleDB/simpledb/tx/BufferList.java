@@ -7,12 +7,16 @@ import java.util.*;
 
 /**
  * Manages the transaction's currently-pinned buffers. 
+ * The list also holds the transaction's
+ * {@link BufferReservation reservation} of buffers,
+ * which its pins and unpins use.
  * @author Edward Sciore
  */
 class BufferList {
    private Map<Block,Buffer> buffers = new HashMap<Block,Buffer>();
    private List<Block> pins = new ArrayList<Block>();
    private BufferMgr bufferMgr = SimpleDB.bufferMgr();
+   private BufferReservation reservation = new BufferReservation();
    
    /**
     * Returns the buffer pinned to the specified block.
@@ -30,7 +34,17 @@ class BufferList {
     * @param blk a reference to the disk block
     */
    void pin(Block blk) {
-      Buffer buff = bufferMgr.pin(blk);
+      pin(blk, null);
+   }
+   
+   /**
+    * Pins the block on behalf of a scan that is confined
+    * to the specified ring, and keeps track of the buffer internally.
+    * @param blk a reference to the disk block
+    * @param ring the scan's ring, or null if the scan has none
+    */
+   void pin(Block blk, BufferRing ring) {
+      Buffer buff = bufferMgr.pin(blk, ring, reservation);
       buffers.put(blk, buff);
       pins.add(blk);
    }
@@ -43,7 +57,20 @@ class BufferList {
     * @return a reference to the newly-created block
     */
    Block pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = bufferMgr.pinNew(filename, fmtr);
+      return pinNew(filename, fmtr, null);
+   }
+   
+   /**
+    * Appends a new block to the specified file on behalf
+    * of a scan that is confined to the specified ring,
+    * and pins it.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @param ring the scan's ring, or null if the scan has none
+    * @return a reference to the newly-created block
+    */
+   Block pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      Buffer buff = bufferMgr.pinNew(filename, fmtr, ring, reservation);
       Block blk = buff.block();
       buffers.put(blk, buff);
       pins.add(blk);
@@ -56,16 +83,37 @@ class BufferList {
     */
    void unpin(Block blk) {
       Buffer buff = buffers.get(blk);
-      bufferMgr.unpin(buff);
+      bufferMgr.unpin(buff, reservation);
       pins.remove(blk);
       if (!pins.contains(blk))
          buffers.remove(blk);
    }
    
    /**
-    * Unpins any buffers still pinned by this transaction.
+    * Reserves up to the specified number of buffers
+    * for the transaction.
+    * @param n the number of buffers requested
+    * @return the number of buffers granted
+    */
+   int reserve(int n) {
+      return bufferMgr.reserve(reservation, n);
+   }
+   
+   /**
+    * Releases the specified number of the transaction's
+    * reserved buffers.
+    * @param n the number of buffers to release
+    */
+   void release(int n) {
+      bufferMgr.release(reservation, n);
+   }
+   
+   /**
+    * Releases the transaction's reserved buffers, and
+    * unpins any buffers still pinned by this transaction.
     */
    void unpinAll() {
+      bufferMgr.release(reservation, reservation.size());
       for (Block blk : pins) {
          Buffer buff = buffers.get(blk);
          bufferMgr.unpin(buff);
@@ -73,4 +121,4 @@ class BufferList {
       buffers.clear();
       pins.clear();
    }
-}
\ No newline at end of file
+}
\ No newline at end of file
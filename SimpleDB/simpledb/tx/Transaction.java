@@ -10,6 +10,15 @@ import simpledb.tx.concurrency.ConcurrencyMgr;
  * Provides transaction management for clients,
  * ensuring that all transactions are serializable, recoverable,
  * and in general satisfy the ACID properties.
+ * <p>
+ * Each get or set of a value locks the block and
+ * holds the latch of its buffer while the value is accessed.
+ * A client that accesses several values of a block at once,
+ * such as when it searches a page for a record or shifts the
+ * entries of an index page, can instead call
+ * {@link #beginOperation(Block, boolean)} and
+ * {@link #endOperation()} around the accesses;
+ * the block is then locked and latched only once.
  * @author Edward Sciore
  */
 public class Transaction {
@@ -19,6 +28,9 @@ public class Transaction {
    private ConcurrencyMgr concurMgr;
    private int txnum;
    private BufferList myBuffers = new BufferList();
+   private Block opBlock = null;
+   private Buffer opBuffer = null;
+   private boolean opUpdate;
    
    /**
     * Creates a new transaction and its associated 
@@ -74,7 +86,7 @@ public class Transaction {
     * before user transactions begin.
     */
    public void recover() {
-      SimpleDB.bufferMgr().flushAll(txnum);
+      SimpleDB.bufferMgr().flushAll();
       recoveryMgr.recover();
    }
    
@@ -87,6 +99,53 @@ public class Transaction {
       myBuffers.pin(blk);
    }
    
+   /**
+    * Pins the specified block on behalf of a scan
+    * that is confined to the specified ring of buffers.
+    * @param blk a reference to the disk block
+    * @param ring the scan's ring, or null if the scan has none
+    * @see BufferMgr#ringFor(int)
+    */
+   public void pin(Block blk, BufferRing ring) {
+      myBuffers.pin(blk, ring);
+   }
+   
+   /**
+    * Reserves up to the specified number of buffers for the
+    * transaction, so that its pins of blocks that are not in
+    * the pool can use them without waiting.
+    * The buffers are not taken from other transactions'
+    * pins; fewer are granted if there are not enough
+    * unpinned buffers.
+    * The reservation lasts until the buffers are released,
+    * or until the transaction commits or rolls back.
+    * @param n the number of buffers requested
+    * @return the number of buffers granted
+    * @see BufferReservation
+    */
+   public int reserveBuffers(int n) {
+      return myBuffers.reserve(n);
+   }
+   
+   /**
+    * Releases the specified number of the transaction's
+    * reserved buffers.
+    * @param n the number of buffers to release
+    */
+   public void releaseBuffers(int n) {
+      myBuffers.release(n);
+   }
+   
+   /**
+    * Asks the buffer manager to start reading the specified blocks,
+    * so that later pins of them will not have to wait.
+    * No locks are needed, because no values are returned.
+    * @param blks references to the disk blocks
+    */
+   public void prefetch(Block... blks) {
+      SimpleDB.bufferMgr().prefetch(blks);
+   }
+   
    /**
     * Unpins the specified block.
     * The transaction looks up the buffer pinned to this block,
@@ -97,6 +156,41 @@ public class Transaction {
       myBuffers.unpin(blk);
    }
    
+   /**
+    * Begins an operation on the specified block.
+    * The method obtains an SLock on the block (or an XLock,
+    * if the operation updates it) and acquires the latch of
+    * its buffer in the corresponding mode.
+    * Until {@link #endOperation()} is called, the gets and sets
+    * of values of the block use that lock and latch,
+    * instead of obtaining their own.
+    * Since other threads wait for the latch,
+    * the operation should be short and must access no other block.
+    * @param blk a reference to the disk block
+    * @param update true if the operation sets values of the block
+    */
+   public void beginOperation(Block blk, boolean update) {
+      if (opBuffer != null)
+         throw new IllegalStateException("operation already in progress on " + opBlock);
+      opBuffer = latch(blk, update);
+      opBlock = blk;
+      opUpdate = update;
+   }
+   
+   /**
+    * Ends the current operation, releasing the latch
+    * that it holds.
+    * The lock on the block is held until the transaction completes.
+    */
+   public void endOperation() {
+      if (opUpdate)
+         opBuffer.xUnlatch();
+      else
+         opBuffer.sUnlatch();
+      opBlock = null;
+      opBuffer = null;
+   }
+   
    /**
     * Returns the integer value stored at the
     * specified offset of the specified block.
@@ -107,9 +201,13 @@ public class Transaction {
     * @return the integer stored at that offset
     */
    public int getInt(Block blk, int offset) {
-      concurMgr.sLock(blk);
-      Buffer buff = myBuffers.getBuffer(blk);
-      return buff.getInt(offset);
+      Buffer buff = latch(blk, false);
+      try {
+         return buff.getInt(offset);
+      }
+      finally {
+         unlatch(buff, false);
+      }
    }
    
    /**
@@ -122,9 +220,105 @@ public class Transaction {
     * @return the string stored at that offset
     */
    public String getString(Block blk, int offset) {
+      Buffer buff = latch(blk, false);
+      try {
+         return buff.getString(offset);
+      }
+      finally {
+         unlatch(buff, false);
+      }
+   }
+   
+   /**
+    * Compares the string stored at the specified offset
+    * of the specified block with an encoded key,
+    * without materializing the string.
+    * The method first obtains an SLock on the block,
+    * then it calls the buffer to compare the value.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param key the key, as encoded by {@link simpledb.file.Page#encode(String)}
+    * @return a negative value, zero, or a positive value
+    * as the string is less than, equal to, or greater than the key
+    */
+   public int compareString(Block blk, int offset, byte[] key) {
+      Buffer buff = latch(blk, false);
+      try {
+         return buff.compareString(offset, key);
+      }
+      finally {
+         unlatch(buff, false);
+      }
+   }
+   
+   /**
+    * Compares the strings stored at the specified offsets
+    * of two blocks, without materializing them.
+    * The method first obtains an SLock on both blocks,
+    * then it calls the buffers to compare the values.
+    * The latches of the two buffers are acquired
+    * in the order given by {@link Buffer#latchesBefore(Buffer)};
+    * during an operation, both strings must be in its block,
+    * since its latch is already held out of that order.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param otherblk a reference to the other disk block
+    * @param otheroffset the byte offset within the other block
+    * @return a negative value, zero, or a positive value
+    * as the first string is less than, equal to, or greater than the second
+    */
+   public int compareString(Block blk, int offset, Block otherblk, int otheroffset) {
+      if (blk.equals(otherblk)) {
+         Buffer buff = latch(blk, false);
+         try {
+            return buff.compareString(offset, buff, otheroffset);
+         }
+         finally {
+            unlatch(buff, false);
+         }
+      }
+      checkNoOperation(blk);
+      checkNoOperation(otherblk);
       concurMgr.sLock(blk);
+      concurMgr.sLock(otherblk);
       Buffer buff = myBuffers.getBuffer(blk);
-      return buff.getString(offset);
+      Buffer otherbuff = myBuffers.getBuffer(otherblk);
+      Buffer first  = buff.latchesBefore(otherbuff) ? buff : otherbuff;
+      Buffer second = (first == buff) ? otherbuff : buff;
+      first.sLatch();
+      try {
+         second.sLatch();
+         try {
+            return buff.compareString(offset, otherbuff, otheroffset);
+         }
+         finally {
+            second.sUnlatch();
+         }
+      }
+      finally {
+         first.sUnlatch();
+      }
+   }
+   
+   /**
+    * Returns true if the string stored at the specified offset
+    * of the specified block equals an encoded key.
+    * The string is not materialized.
+    * The method first obtains an SLock on the block,
+    * then it calls the buffer to compare the value.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param key the key, as encoded by {@link simpledb.file.Page#encode(String)}
+    * @return true if the string equals the key
+    */
+   public boolean equalsString(Block blk, int offset, byte[] key) {
+      Buffer buff = latch(blk, false);
+      try {
+         return buff.equalsString(offset, key);
+      }
+      finally {
+         unlatch(buff, false);
+      }
    }
    
    /**
@@ -141,10 +335,14 @@ public class Transaction {
     * @param val the value to be stored
     */
    public void setInt(Block blk, int offset, int val) {
-      concurMgr.xLock(blk);
-      Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setInt(buff, offset, val);
-      buff.setInt(offset, val, txnum, lsn);
+      Buffer buff = latch(blk, true);
+      try {
+         long lsn = recoveryMgr.setInt(buff, offset, val);
+         buff.setInt(offset, val, txnum, lsn);
+      }
+      finally {
+         unlatch(buff, true);
+      }
    }
    
    /**
@@ -161,10 +359,14 @@ public class Transaction {
     * @param val the value to be stored
     */
    public void setString(Block blk, int offset, String val) {
-      concurMgr.xLock(blk);
-      Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setString(buff, offset, val);
-      buff.setString(offset, val, txnum, lsn);
+      Buffer buff = latch(blk, true);
+      try {
+         long lsn = recoveryMgr.setString(buff, offset, val);
+         buff.setString(offset, val, txnum, lsn);
+      }
+      finally {
+         unlatch(buff, true);
+      }
    }
    
    /**
@@ -191,13 +393,80 @@ public class Transaction {
     * @return a reference to the newly-created disk block
     */
    public Block append(String filename, PageFormatter fmtr) {
+      return append(filename, fmtr, null);
+   }
+   
+   /**
+    * Appends a new block to the end of the specified file
+    * on behalf of a scan that is confined to the specified
+    * ring of buffers, and returns a reference to it.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @param ring the scan's ring, or null if the scan has none
+    * @return a reference to the newly-created disk block
+    */
+   public Block append(String filename, PageFormatter fmtr, BufferRing ring) {
       Block dummyblk = new Block(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
-      Block blk = myBuffers.pinNew(filename, fmtr);
+      Block blk = myBuffers.pinNew(filename, fmtr, ring);
       unpin(blk);
       return blk;
    }
    
+   /**
+    * Locks the specified block and latches its buffer,
+    * unless the block belongs to the current operation,
+    * whose lock and latch are already held.
+    * An operation that only gets values cannot set them,
+    * and no other block can be accessed during an operation.
+    * @param blk a reference to the disk block
+    * @param update true if the caller sets a value of the block
+    * @return the buffer of the block
+    */
+   private Buffer latch(Block blk, boolean update) {
+      if (opBuffer != null && blk.equals(opBlock)) {
+         if (update && !opUpdate)
+            throw new IllegalStateException("operation on " + blk + " is read-only");
+         return opBuffer;
+      }
+      checkNoOperation(blk);
+      if (update)
+         concurMgr.xLock(blk);
+      else
+         concurMgr.sLock(blk);
+      Buffer buff = myBuffers.getBuffer(blk);
+      if (update)
+         buff.xLatch();
+      else
+         buff.sLatch();
+      return buff;
+   }
+   
+   /**
+    * Releases the latch acquired by {@link #latch(Block, boolean)},
+    * unless it belongs to the current operation.
+    */
+   private void unlatch(Buffer buff, boolean update) {
+      if (buff == opBuffer)
+         return;
+      if (update)
+         buff.xUnlatch();
+      else
+         buff.sUnlatch();
+   }
+   
+   /**
+    * Throws an exception if an operation is in progress,
+    * since the latch of the specified block could then be
+    * acquired after the operation's latch, out of order.
+    * @param blk a reference to a block outside the operation
+    */
+   private void checkNoOperation(Block blk) {
+      if (opBuffer != null)
+         throw new IllegalStateException("cannot access " + blk
+                                         + " during the operation on " + opBlock);
+   }
+   
    private static synchronized int nextTxNumber() {
       nextTxNum++;
       System.out.println("new transaction: " + nextTxNum);
@@ -1,5 +1,6 @@
 package simpledb.tx.recovery;
 
+import simpledb.server.SimpleDB;
 import simpledb.log.BasicLogRecord;
 
 /**
@@ -26,9 +27,9 @@ class CheckpointRecord implements LogRecord {
     * and nothing else.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
+   public long writeToLog() {
       Object[] rec = new Object[] {CHECKPOINT};
-      return logMgr.append(rec);
+      return SimpleDB.logMgr().append(rec);
    }
    
    public int op() {
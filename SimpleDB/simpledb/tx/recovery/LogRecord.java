@@ -1,8 +1,5 @@
 package simpledb.tx.recovery;
 
-import simpledb.log.LogMgr;
-import simpledb.server.SimpleDB;
-
 /**
  * The interface implemented by each type of log record.
  * @author Edward Sciore
@@ -15,13 +12,11 @@ public interface LogRecord {
       COMMIT = 2, ROLLBACK  = 3,
       SETINT = 4, SETSTRING = 5;
    
-   static final LogMgr logMgr = SimpleDB.logMgr();
-   
    /**
     * Writes the record to the log and returns its LSN.
     * @return the LSN of the record in the log
     */
-   int writeToLog();
+   long writeToLog();
    
    /**
     * Returns the log record's type. 
@@ -43,4 +38,4 @@ public interface LogRecord {
     * @param txnum the id of the transaction that is performing the undo.
     */
    void undo(int txnum);
-}
\ No newline at end of file
+}
\ No newline at end of file
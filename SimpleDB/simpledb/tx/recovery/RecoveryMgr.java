@@ -8,18 +8,33 @@ import java.util.*;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * <p>
+ * The recovery managers keep the LSNs of the START records
+ * of the active transactions.
+ * Checkpoints are quiescent, and the buffers of a transaction
+ * are flushed when it completes, so rollback and recovery
+ * never read a record older than the START record of
+ * the oldest active transaction;
+ * whenever a transaction completes, the log is
+ * {@link simpledb.log.LogMgr#truncate(long) truncated} there.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
+   private static Map<Integer,Long> startLSNs = new HashMap<Integer,Long>();
    private int txnum;
 
    /**
     * Creates a recovery manager for the specified transaction.
+    * The START record is written and its LSN is saved together,
+    * so that a transaction that completes concurrently
+    * cannot truncate the log past it.
     * @param txnum the ID of the specified transaction
     */
    public RecoveryMgr(int txnum) {
       this.txnum = txnum;
-      new StartRecord(txnum).writeToLog();
+      synchronized (startLSNs) {
+         startLSNs.put(txnum, new StartRecord(txnum).writeToLog());
+      }
    }
 
    /**
@@ -27,8 +42,10 @@ public class RecoveryMgr {
     */
    public void commit() {
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CommitRecord(txnum).writeToLog();
+      SimpleDB.fileMgr().forceAll();
+      long lsn = new CommitRecord(txnum).writeToLog();
       SimpleDB.logMgr().flush(lsn);
+      finish(lsn);
    }
 
    /**
@@ -37,31 +54,42 @@ public class RecoveryMgr {
    public void rollback() {
       doRollback();
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new RollbackRecord(txnum).writeToLog();
+      SimpleDB.fileMgr().forceAll();
+      long lsn = new RollbackRecord(txnum).writeToLog();
       SimpleDB.logMgr().flush(lsn);
+      finish(lsn);
    }
 
    /**
     * Recovers uncompleted transactions from the log,
     * then writes a quiescent checkpoint record to the log and flushes it.
+    * Undoing an update marks the page as modified by the
+    * transaction that made the update, and so every dirty
+    * buffer is flushed before the checkpoint,
+    * not just those of the recovering transaction.
+    * The list of blocks in the buffer pool is saved
+    * along with the checkpoint.
     */
    public void recover() {
       doRecover();
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CheckpointRecord().writeToLog();
+      SimpleDB.bufferMgr().flushAll();
+      SimpleDB.fileMgr().forceAll();
+      long lsn = new CheckpointRecord().writeToLog();
       SimpleDB.logMgr().flush(lsn);
-
+      SimpleDB.saveResidentSet();
    }
 
    /**
     * Writes a setint record to the log, and returns its lsn.
     * Updates to temporary files are not logged; instead, a
     * "dummy" negative lsn is returned.
+    * The caller must hold the buffer's latch in exclusive mode,
+    * so that the saved value is the one being overwritten.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.getInt(offset);
       Block blk = buff.block();
       if (isTempBlock(blk))
@@ -74,11 +102,13 @@ public class RecoveryMgr {
     * Writes a setstring record to the log, and returns its lsn.
     * Updates to temporary files are not logged; instead, a
     * "dummy" negative lsn is returned.
+    * The caller must hold the buffer's latch in exclusive mode,
+    * so that the saved value is the one being overwritten.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
+   public long setString(Buffer buff, int offset, String newval) {
       String oldval = buff.getString(offset);
       Block blk = buff.block();
       if (isTempBlock(blk))
@@ -128,6 +158,24 @@ public class RecoveryMgr {
       }
    }
 
+   /**
+    * Removes the transaction from the active transactions,
+    * and truncates the log at the oldest record that
+    * is still needed: the START record of the oldest
+    * active transaction, or if there is none,
+    * the transaction's own commit or rollback record.
+    * @param lsn the LSN of the commit or rollback record
+    */
+   private void finish(long lsn) {
+      long oldest = lsn;
+      synchronized (startLSNs) {
+         startLSNs.remove(txnum);
+         for (long start : startLSNs.values())
+            oldest = Math.min(oldest, start);
+      }
+      SimpleDB.logMgr().truncate(oldest);
+   }
+
    /**
     * Determines whether a block comes from a temporary file or not.
     */
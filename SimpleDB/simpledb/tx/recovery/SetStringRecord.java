@@ -45,10 +45,10 @@ class SetStringRecord implements LogRecord {
     * string value at that offset.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
+   public long writeToLog() {
       Object[] rec = new Object[] {SETSTRING, txnum, blk.fileName(),
          blk.number(), offset, val};
-      return logMgr.append(rec);
+      return SimpleDB.logMgr().append(rec);
    }
    
    public int op() {
@@ -67,13 +67,20 @@ class SetStringRecord implements LogRecord {
     * Replaces the specified data value with the value saved in the log record.
     * The method pins a buffer to the specified block,
     * calls setString to restore the saved value
-    * (using a dummy LSN), and unpins the buffer.
+    * (using a dummy LSN) while holding the buffer's latch,
+    * and unpins the buffer.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(int txnum) {
       BufferMgr buffMgr = SimpleDB.bufferMgr();
       Buffer buff = buffMgr.pin(blk);
-      buff.setString(offset, val, txnum, -1);
+      buff.xLatch();
+      try {
+         buff.setString(offset, val, txnum, -1);
+      }
+      finally {
+         buff.xUnlatch();
+      }
       buffMgr.unpin(buff);
    }
 }
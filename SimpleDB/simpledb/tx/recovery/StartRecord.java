@@ -1,5 +1,6 @@
 package simpledb.tx.recovery;
 
+import simpledb.server.SimpleDB;
 import simpledb.log.BasicLogRecord;
 
 class StartRecord implements LogRecord {
@@ -27,9 +28,9 @@ class StartRecord implements LogRecord {
     * followed by the transaction id.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
+   public long writeToLog() {
       Object[] rec = new Object[] {START, txnum};
-      return logMgr.append(rec);
+      return SimpleDB.logMgr().append(rec);
    }
    
    public int op() {
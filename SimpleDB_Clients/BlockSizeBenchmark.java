@@ -0,0 +1,110 @@
+import java.io.File;
+import java.util.Random;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.*;
+import simpledb.index.Index;
+import simpledb.index.btree.BTreeIndex;
+
+/**
+ * Compares table-scan and B-tree lookup throughput
+ * across database block sizes.
+ * The program runs against an embedded server: for each block size,
+ * it creates a fresh database in the user's home directory,
+ * loads a table and a B-tree index on it, and then times
+ * full scans of the table and random index lookups.
+ * The buffer pool is given the same number of bytes for every
+ * block size, so that larger blocks mean fewer buffers.
+ * Usage: java BlockSizeBenchmark [numrecs] [poolbytes]
+ */
+public class BlockSizeBenchmark {
+	private static final int[] BLOCK_SIZES = {400, 1024, 4096, 8192, 16384};
+
+	public static void main(String[] args) {
+		int numrecs   = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+		int poolbytes = (args.length > 1) ? Integer.parseInt(args[1]) : 256 * 1024;
+		String[] results = new String[BLOCK_SIZES.length];
+		for (int i=0; i<BLOCK_SIZES.length; i++)
+			results[i] = run(BLOCK_SIZES[i], numrecs, poolbytes);
+
+		System.out.println();
+		System.out.println("blocksize buffers  blocks  load(ms)  scan(recs/s)  lookups/s");
+		for (String r : results)
+			System.out.println(r);
+	}
+
+	private static String run(int blocksize, int numrecs, int poolbytes) {
+		String dbname = "blocksizebench" + blocksize;
+		deleteDirectory(new File(System.getProperty("user.home"), dbname));
+		SimpleDB.BLOCK_SIZE  = blocksize;
+		SimpleDB.BUFFER_SIZE = Math.max(8, poolbytes / blocksize);
+		SimpleDB.init(dbname);
+
+		Schema sch = new Schema();
+		sch.addIntField("id");
+		sch.addStringField("name", 20);
+		TableInfo ti = new TableInfo("bench", sch);
+		Schema idxsch = new Schema();
+		idxsch.addIntField("block");
+		idxsch.addIntField("id");
+		idxsch.addIntField("dataval");
+
+		// load the table and its index
+		long start = System.currentTimeMillis();
+		Transaction tx = new Transaction();
+		UpdateScan ts = new TableScan(ti, tx);
+		Index idx = new BTreeIndex("benchidx", idxsch, tx);
+		for (int id=0; id<numrecs; id++) {
+			ts.insert();
+			ts.setInt("id", id);
+			ts.setString("name", "rec" + id);
+			idx.insert(new IntConstant(id), ts.getRid());
+		}
+		ts.close();
+		idx.close();
+		tx.commit();
+		long loadtime = System.currentTimeMillis() - start;
+
+		// full table scans
+		int scans = 5;
+		start = System.nanoTime();
+		tx = new Transaction();
+		for (int i=0; i<scans; i++) {
+			Scan s = new TableScan(ti, tx);
+			while (s.next())
+				s.getInt("id");
+			s.close();
+		}
+		int numblocks = tx.size(ti.fileName());
+		tx.commit();
+		double scanrate = (double) scans * numrecs / ((System.nanoTime() - start) / 1e9);
+
+		// random index lookups
+		int lookups = numrecs;
+		Random rand = new Random(42);
+		start = System.nanoTime();
+		tx = new Transaction();
+		idx = new BTreeIndex("benchidx", idxsch, tx);
+		for (int i=0; i<lookups; i++) {
+			idx.beforeFirst(new IntConstant(rand.nextInt(numrecs)));
+			if (!idx.next())
+				throw new RuntimeException("missing index entry");
+			idx.getDataRid();
+		}
+		idx.close();
+		tx.commit();
+		double lookuprate = lookups / ((System.nanoTime() - start) / 1e9);
+
+		return String.format("%9d %7d %7d %9d %13.0f %10.0f",
+				blocksize, SimpleDB.BUFFER_SIZE, numblocks, loadtime, scanrate, lookuprate);
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+}
@@ -0,0 +1,119 @@
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.file.Page;
+
+/**
+ * Checks that the in-place string comparisons of a page
+ * agree with String.compareTo and String.equals.
+ * The strings are drawn from characters of every length
+ * of UTF-8 encoding, including the characters U+E000 to U+FFFF,
+ * which follow the supplementary characters in String order
+ * but precede them in byte order; the page's byte ordering
+ * must compensate for them.
+ * Each pair of strings is compared against an encoded key
+ * and against a string on another page.
+ * The program prints the number of mismatches, and exits
+ * with a nonzero status if there are any.
+ * Usage: java CompareStringCheck [randompairs]
+ */
+public class CompareStringCheck {
+	private static final String[] FIXED = {
+		"", "a", "ab", "abc", "b", "B", "Z", "~",
+		"caf\u00e9", "cafe", "caf\u00e8", "\u00ff",
+		"\u20ac", "\u4e2d\u6587", "\ud7ff",
+		"\ue000", "\uff21", "\ufffd", "\uffff",
+		"\ud800\udc00", "\ud83d\ude00", "\udbff\udfff",
+		"a\ue000", "a\ud83d\ude00", "\ud83d\ude00a", "\ue000\ud83d\ude00"
+	};
+	private static final String POOL =
+		"aZ~\u007f\u0080\u00e9\u00ff\u0100\u07ff\u0800\u20ac\u4e2d\ud7ff\ue000\uef00\uf000\uff21\ufffd";
+	private static final String[] SUPPLEMENTARY = {
+		"\ud800\udc00", "\ud83d\ude00", "\udbff\udfff"
+	};
+	private static int checked = 0, mismatches = 0;
+
+	public static void main(String[] args) {
+		int randompairs = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		SimpleDB.initFileMgr("comparestringcheck");
+		System.out.println("charset " + SimpleDB.fileMgr().charset());
+
+		for (String s1 : FIXED)
+			for (String s2 : FIXED)
+				check(s1, s2);
+
+		Random rand = new Random(0);
+		for (int i=0; i<randompairs; i++) {
+			String s1 = randomString(rand);
+			// a shared prefix makes the first difference occur later
+			String s2 = rand.nextBoolean() ? prefix(s1, rand) + randomString(rand) : randomString(rand);
+			check(s1, s2);
+		}
+
+		System.out.println(checked + " pairs checked, " + mismatches + " mismatches");
+		if (mismatches > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Compares the two strings on pages in every way,
+	 * and reports any result that disagrees with the Java one.
+	 */
+	private static void check(String s1, String s2) {
+		Page p1 = new Page();
+		Page p2 = new Page();
+		int offset1 = 0, offset2 = 17;
+		p1.setString(offset1, s1);
+		p2.setString(offset2, s2);
+		byte[] key = Page.encode(s2);
+
+		int expected = Integer.signum(s1.compareTo(s2));
+		int withkey  = Integer.signum(p1.compareString(offset1, key));
+		int withpage = Integer.signum(p1.compareString(offset1, p2, offset2));
+		int reversed = Integer.signum(p2.compareString(offset2, p1, offset1));
+		boolean equal = p1.equalsString(offset1, key);
+
+		checked++;
+		if (withkey != expected || withpage != expected || reversed != -expected
+				|| equal != s1.equals(s2)) {
+			mismatches++;
+			if (mismatches <= 10)
+				System.out.println("mismatch: " + escape(s1) + " vs " + escape(s2)
+						+ ": compareTo " + expected + ", key " + withkey
+						+ ", page " + withpage + ", reversed " + reversed
+						+ ", equals " + equal);
+		}
+	}
+
+	private static String randomString(Random rand) {
+		StringBuilder sb = new StringBuilder();
+		int len = rand.nextInt(6);
+		for (int i=0; i<len; i++) {
+			if (rand.nextInt(4) == 0)
+				sb.append(SUPPLEMENTARY[rand.nextInt(SUPPLEMENTARY.length)]);
+			else
+				sb.append(POOL.charAt(rand.nextInt(POOL.length())));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a random prefix of the string,
+	 * which does not split a supplementary character.
+	 */
+	private static String prefix(String s, Random rand) {
+		int end = rand.nextInt(s.length()+1);
+		if (end > 0 && end < s.length() && Character.isLowSurrogate(s.charAt(end)))
+			end--;
+		return s.substring(0, end);
+	}
+
+	private static String escape(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : s.toCharArray())
+			if (c >= 0x20 && c < 0x7f)
+				sb.append(c);
+			else
+				sb.append(String.format("\\u%04x", (int) c));
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,157 @@
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.buffer.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks the buffer latches and the operations of a transaction.
+ * The program runs the following scenarios, in order:
+ * <ul>
+ * <li>a writer that waits for a latch held by a steady stream
+ * of readers, which must acquire it within a second;
+ * <li>a reader that waits while a writer holds the latch
+ * for longer than the waiters spin, which must be woken
+ * when the writer releases it;
+ * <li>a read-only operation of a transaction, whose gets must
+ * succeed without latching again, and in which a set,
+ * a nested operation, and an access to another block
+ * must throw an exception;
+ * <li>the end of the operation, after which another thread
+ * must be able to latch the buffer exclusively;
+ * <li>an update operation, whose sets must be visible
+ * after it ends.
+ * </ul>
+ * The program exits with a nonzero status if a check fails.
+ * Usage: java LatchCheck
+ */
+public class LatchCheck {
+	private static final String FILE = "latchcheck.tbl";
+	private static final int READERS = 4;
+	private static volatile boolean stop = false;
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		SimpleDB.READ_AHEAD_BLOCKS = 0;
+		SimpleDB.CLEANER_RATE = 0;
+		SimpleDB.initFileLogAndBufferMgr("latchcheck");
+		final BufferMgr bm = SimpleDB.bufferMgr();
+		Page zeros = new Page();
+		while (SimpleDB.fileMgr().size(FILE) < 2)
+			zeros.append(FILE);
+		Block blk = new Block(FILE, 0);
+		Block otherblk = new Block(FILE, 1);
+		final Buffer buff = bm.pin(blk);
+
+		// a writer among readers that keep the latch busy
+		Thread[] readers = new Thread[READERS];
+		for (int i=0; i<READERS; i++) {
+			readers[i] = new Thread() {
+				public void run() {
+					while (!stop) {
+						buff.sLatch();
+						Thread.yield();
+						buff.sUnlatch();
+					}
+				}
+			};
+			readers[i].start();
+		}
+		Thread.sleep(100);
+		long start = System.currentTimeMillis();
+		buff.xLatch();
+		long elapsed = System.currentTimeMillis() - start;
+		buff.xUnlatch();
+		stop = true;
+		for (Thread reader : readers)
+			reader.join();
+		check("writer is not starved by readers", elapsed < 1000);
+
+		// a reader that waits longer than it spins
+		buff.xLatch();
+		Thread reader = new Thread() {
+			public void run() {
+				buff.sLatch();
+				buff.sUnlatch();
+			}
+		};
+		reader.start();
+		Thread.sleep(500);
+		check("reader waits while the writer holds the latch", reader.isAlive());
+		buff.xUnlatch();
+		reader.join(1000);
+		check("waiting reader is woken by the release", !reader.isAlive());
+
+		// a read-only operation
+		Transaction tx = new Transaction();
+		tx.pin(blk);
+		tx.pin(otherblk);
+		tx.beginOperation(blk, false);
+		check("get within the operation", tx.getInt(blk, 0) == 0 && tx.getInt(blk, 4) == 0);
+		check("set within a read-only operation throws", throwsIllegalState(tx, "set", blk, otherblk));
+		check("nested operation throws", throwsIllegalState(tx, "begin", blk, otherblk));
+		check("access to another block throws", throwsIllegalState(tx, "get", blk, otherblk));
+		check("comparison with another block throws", throwsIllegalState(tx, "compare", blk, otherblk));
+		check("operation holds the latch", !latchedWithin(buff, 200));
+		tx.endOperation();
+		check("end of the operation releases the latch", latchedWithin(buff, 1000));
+
+		// an update operation
+		tx.beginOperation(blk, true);
+		tx.setInt(blk, 0, 17);
+		tx.setInt(blk, 4, tx.getInt(blk, 0) + 1);
+		tx.endOperation();
+		check("sets of an update operation", tx.getInt(blk, 0) == 17 && tx.getInt(blk, 4) == 18);
+		check("other blocks after the operation", tx.getInt(otherblk, 0) == 0);
+		tx.rollback();
+		bm.unpin(buff);
+
+		System.out.println((failures == 0) ? "all checks passed" : failures + " checks failed");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Returns true if the specified access to the blocks
+	 * throws an IllegalStateException.
+	 */
+	private static boolean throwsIllegalState(Transaction tx, String access, Block blk, Block otherblk) {
+		try {
+			if (access.equals("set"))
+				tx.setInt(blk, 0, 1);
+			else if (access.equals("begin"))
+				tx.beginOperation(blk, false);
+			else if (access.equals("get"))
+				tx.getInt(otherblk, 0);
+			else
+				tx.compareString(blk, 8, otherblk, 8);
+			return false;
+		}
+		catch(IllegalStateException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Returns true if another thread latches the buffer exclusively
+	 * within the specified number of milliseconds.
+	 * If it does not, the thread is left waiting,
+	 * and releases the latch once it gets it.
+	 */
+	private static boolean latchedWithin(final Buffer buff, long millis) throws InterruptedException {
+		Thread writer = new Thread() {
+			public void run() {
+				buff.xLatch();
+				buff.xUnlatch();
+			}
+		};
+		writer.start();
+		writer.join(millis);
+		return !writer.isAlive();
+	}
+
+	private static void check(String what, boolean ok) {
+		System.out.println((ok ? "ok: " : "FAILED: ") + what);
+		if (!ok)
+			failures++;
+	}
+}
@@ -0,0 +1,123 @@
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.log.*;
+
+/**
+ * Checks that the log iterator crosses the boundaries
+ * between log segments, and that it stops at the oldest
+ * remaining segment after the log has been truncated.
+ * The log is created with segments of only a few blocks,
+ * and records numbered 0, 1, 2, ... are appended to it.
+ * After each truncation, the iterator must return the records
+ * in reverse order without gaps, from the newest record down to
+ * a record no newer than the truncation point; the segments
+ * that precede that point must have been deleted.
+ * The log is then reopened, as after a restart,
+ * and must return the same records.
+ * The program exits with a nonzero status if a check fails.
+ * Usage: java LogSegmentCheck [segmentblocks]
+ */
+public class LogSegmentCheck {
+	private static final int RECORDS = 2000;
+	private static List<Long> lsns = new ArrayList<Long>();
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		SimpleDB.LOG_SEGMENT_BLOCKS = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+		SimpleDB.initFileAndLogMgr("logsegmentcheck");
+		LogMgr logmgr = SimpleDB.logMgr();
+		if (lastRecord(logmgr) >= 0) {
+			System.out.println("the database logsegmentcheck must not exist");
+			System.exit(1);
+		}
+
+		append(logmgr, RECORDS);
+		int segments = segmentCount();
+		check("all records before truncation", logmgr, RECORDS - 1, 0);
+
+		int oldest = scanTo(logmgr, RECORDS/2 + 3);
+		check("segment files deleted", segmentCount() < segments);
+
+		append(logmgr, RECORDS);
+		check("appended after truncation", logmgr, 2*RECORDS - 1, oldest);
+
+		oldest = scanTo(logmgr, 2*RECORDS - 1);
+		check("truncated to the newest record", oldest > RECORDS);
+
+		logmgr.flush(lsns.get(lsns.size() - 1));
+		logmgr = new LogMgr(SimpleDB.LOG_FILE, SimpleDB.LOG_BUFFERS, SimpleDB.LOG_SEGMENT_BLOCKS);
+		check("after reopening the log", logmgr, 2*RECORDS - 1, oldest);
+
+		System.out.println((failures == 0) ? "all checks passed" : failures + " checks failed");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	private static void append(LogMgr logmgr, int n) {
+		for (int i=0; i<n; i++) {
+			int recnum = lsns.size();
+			lsns.add(logmgr.append(new Object[] {recnum, "record " + recnum}));
+		}
+	}
+
+	/**
+	 * Truncates the log at the specified record,
+	 * checks that the records from the newest one down to it remain,
+	 * and returns the number of the oldest remaining record.
+	 */
+	private static int scanTo(LogMgr logmgr, int recnum) {
+		logmgr.truncate(lsns.get(recnum));
+		int oldest = oldestRecord(logmgr);
+		check("truncated at record " + recnum, logmgr, lsns.size() - 1, Math.min(oldest, recnum));
+		check("record " + recnum + " kept", oldest <= recnum);
+		return oldest;
+	}
+
+	/**
+	 * Checks that the iterator returns the records from newest
+	 * down to oldest, each once and in order, and no others.
+	 */
+	private static void check(String what, LogMgr logmgr, int newest, int oldest) {
+		int expected = newest;
+		boolean ok = true;
+		Iterator<BasicLogRecord> iter = logmgr.iterator();
+		while (iter.hasNext()) {
+			BasicLogRecord rec = iter.next();
+			int recnum = rec.nextInt();
+			String s = rec.nextString();
+			if (recnum != expected || !s.equals("record " + recnum)) {
+				System.out.println("  expected record " + expected + " but read " + recnum + " \"" + s + "\"");
+				ok = false;
+				break;
+			}
+			expected--;
+		}
+		if (ok && expected != oldest - 1) {
+			System.out.println("  the iterator stopped after record " + (expected + 1) + ", not " + oldest);
+			ok = false;
+		}
+		check(what + " (records " + newest + " down to " + oldest + ")", ok);
+	}
+
+	private static void check(String what, boolean ok) {
+		System.out.println((ok ? "ok: " : "FAILED: ") + what);
+		if (!ok)
+			failures++;
+	}
+
+	private static int oldestRecord(LogMgr logmgr) {
+		int oldest = -1;
+		for (BasicLogRecord rec : logmgr)
+			oldest = rec.nextInt();
+		return oldest;
+	}
+
+	private static int lastRecord(LogMgr logmgr) {
+		Iterator<BasicLogRecord> iter = logmgr.iterator();
+		return iter.hasNext() ? iter.next().nextInt() : -1;
+	}
+
+	private static int segmentCount() {
+		return SimpleDB.fileMgr().fileNames(SimpleDB.LOG_FILE).size();
+	}
+}
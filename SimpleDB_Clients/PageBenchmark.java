@@ -0,0 +1,196 @@
+import java.nio.ByteBuffer;
+import simpledb.server.SimpleDB;
+import simpledb.file.Page;
+import simpledb.buffer.Buffer;
+
+/**
+ * Measures the cost of reading a single field of a page.
+ * The program compares four ways of reading integers and strings:
+ * the original page accessors, which were synchronized and moved
+ * the position of the page's byte buffer (reproduced here by the
+ * class MonitorPage); the current page accessors, which use
+ * absolute indexing and no locking; the buffer accessors with the
+ * buffer's shared latch taken for each field; and the buffer
+ * accessors with the latch taken once for each record of
+ * twenty integers.
+ * Each measurement is made with one thread and with several
+ * threads reading the same page, and is reported as
+ * the elapsed nanoseconds per field read, over all threads.
+ * Usage: java PageBenchmark [iterations] [threads]
+ */
+public class PageBenchmark {
+	private static final int FIELDS = 20;
+	private static int iterations;
+	private static volatile long sink;
+
+	public static void main(String[] args) throws Exception {
+		iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+		SimpleDB.initFileMgr("pagebench");
+
+		final MonitorPage mp = new MonitorPage(SimpleDB.fileMgr().blockSize());
+		final Page p = new Page();
+		final Buffer buff = new Buffer();
+		buff.xLatch();
+		for (int i=0; i<FIELDS; i++) {
+			mp.setInt(i * Page.INT_SIZE, i);
+			p.setInt(i * Page.INT_SIZE, i);
+			buff.setInt(i * Page.INT_SIZE, i, 1, -1);
+		}
+		int stroffset = FIELDS * Page.INT_SIZE;
+		mp.setString(stroffset, "abcdefghij");
+		p.setString(stroffset, "abcdefghij");
+		buff.setString(stroffset, "abcdefghij", 1, -1);
+		buff.xUnlatch();
+
+		Reader[] readers = {
+			new Reader("synchronized page") {
+				int getInt(int offset)       { return mp.getInt(offset); }
+				String getString(int offset) { return mp.getString(offset); }
+			},
+			new Reader("unsynchronized page") {
+				int getInt(int offset)       { return p.getInt(offset); }
+				String getString(int offset) { return p.getString(offset); }
+			},
+			new Reader("buffer, field latch") {
+				int getInt(int offset) {
+					buff.sLatch();
+					try {
+						return buff.getInt(offset);
+					}
+					finally {
+						buff.sUnlatch();
+					}
+				}
+				String getString(int offset) {
+					buff.sLatch();
+					try {
+						return buff.getString(offset);
+					}
+					finally {
+						buff.sUnlatch();
+					}
+				}
+			},
+			new Reader("buffer, record latch") {
+				void begin()                 { buff.sLatch(); }
+				void end()                   { buff.sUnlatch(); }
+				int getInt(int offset)       { return buff.getInt(offset); }
+				String getString(int offset) { return buff.getString(offset); }
+			}
+		};
+
+		// warm up, so that all accessors are compiled
+		for (Reader r : readers) {
+			r.readInts(iterations / 10);
+			r.readStrings(iterations / 10);
+		}
+
+		System.out.println("accessor               threads  getInt(ns)  getString(ns)");
+		for (Reader r : readers)
+			for (int n : new int[] {1, threads})
+				System.out.println(String.format("%-22s %7d %11.1f %14.1f",
+						r.name, n, time(r, n, false), time(r, n, true)));
+	}
+
+	/**
+	 * Returns the elapsed nanoseconds per field read
+	 * when the specified number of threads read concurrently,
+	 * each reading the same number of fields.
+	 */
+	private static double time(final Reader r, int numthreads, final boolean strings) throws InterruptedException {
+		Thread[] threads = new Thread[numthreads];
+		for (int i=0; i<numthreads; i++)
+			threads[i] = new Thread() {
+				public void run() {
+					if (strings)
+						r.readStrings(iterations);
+					else
+						r.readInts(iterations);
+				}
+			};
+		long start = System.nanoTime();
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		long elapsed = System.nanoTime() - start;
+		long fields = (strings ? iterations : (long) iterations * FIELDS) * numthreads;
+		return (double) elapsed / fields;
+	}
+
+	private static abstract class Reader {
+		String name;
+
+		Reader(String name) {
+			this.name = name;
+		}
+
+		abstract int getInt(int offset);
+		abstract String getString(int offset);
+
+		/** Called before the fields of a record are read. */
+		void begin() {}
+
+		/** Called after the fields of a record are read. */
+		void end() {}
+
+		void readInts(int n) {
+			long sum = 0;
+			for (int i=0; i<n; i++) {
+				begin();
+				for (int f=0; f<FIELDS; f++)
+					sum += getInt(f * Page.INT_SIZE);
+				end();
+			}
+			sink = sum;
+		}
+
+		void readStrings(int n) {
+			long sum = 0;
+			for (int i=0; i<n; i++) {
+				begin();
+				sum += getString(FIELDS * Page.INT_SIZE).length();
+				end();
+			}
+			sink = sum;
+		}
+	}
+
+	/**
+	 * The page accessors as they were before they used absolute indexing:
+	 * each access is synchronized and moves the buffer's position.
+	 */
+	private static class MonitorPage {
+		private ByteBuffer contents;
+
+		MonitorPage(int blocksize) {
+			contents = ByteBuffer.allocateDirect(blocksize);
+		}
+
+		synchronized int getInt(int offset) {
+			contents.position(offset);
+			return contents.getInt();
+		}
+
+		synchronized void setInt(int offset, int val) {
+			contents.position(offset);
+			contents.putInt(val);
+		}
+
+		synchronized String getString(int offset) {
+			contents.position(offset);
+			int len = contents.getInt();
+			byte[] byteval = new byte[len];
+			contents.get(byteval);
+			return new String(byteval);
+		}
+
+		synchronized void setString(int offset, String val) {
+			contents.position(offset);
+			byte[] byteval = val.getBytes();
+			contents.putInt(byteval.length);
+			contents.put(byteval);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+import java.io.File;
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
+import simpledb.buffer.*;
+
+/**
+ * Measures pin/unpin throughput of the buffer manager
+ * as the size of the buffer pool grows.
+ * For each pool size, the program creates a fresh database
+ * in the user's home directory and times two workloads:
+ * pins that hit, which repeatedly pin and unpin blocks
+ * that are already in the pool, and pins that miss,
+ * which cycle through twice as many blocks as the pool holds.
+ * The blocks lie past the end of an empty file, so that a miss
+ * costs as little disk I/O as possible.
+ * The pins that hit are also timed with several threads,
+ * each pinning its own blocks, to show how pin throughput
+ * scales with the number of shards of the pool.
+ * Usage: java PinBenchmark [pins] [threads]
+ */
+public class PinBenchmark {
+	private static final int[] POOL_SIZES = {100, 1000, 10000, 50000};
+
+	public static void main(String[] args) throws InterruptedException {
+		int pins = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		System.out.println("buffers shards   hits/s   misses/s   hits/s (" + threads + " threads)");
+		for (int poolsize : POOL_SIZES) {
+			String dbname = "pinbench" + poolsize;
+			deleteDirectory(new File(System.getProperty("user.home"), dbname));
+			SimpleDB.BUFFER_SIZE = poolsize;
+			SimpleDB.initFileLogAndBufferMgr(dbname);
+			BufferMgr bm = SimpleDB.bufferMgr();
+
+			// pins that hit: half of the pool is resident
+			int resident = poolsize / 2;
+			pinAll(bm, 0, resident);
+			long start = System.nanoTime();
+			for (int i=0; i<pins; i++)
+				bm.unpin(bm.pin(new Block("bench.tbl", i % resident)));
+			double hitrate = pins / ((System.nanoTime() - start) / 1e9);
+
+			// pins that miss: each block was replaced since its last pin
+			int misses = pins / 4;
+			start = System.nanoTime();
+			for (int i=0; i<misses; i++)
+				bm.unpin(bm.pin(new Block("bench.tbl", resident + i % (2 * poolsize))));
+			double missrate = misses / ((System.nanoTime() - start) / 1e9);
+
+			// concurrent pins that hit
+			double concurrentrate = concurrentHits(bm, threads, pins, resident);
+
+			System.out.println(String.format("%7d %6d %8.0f %10.0f %10.0f",
+					poolsize, bm.shards(), hitrate, missrate, concurrentrate));
+		}
+	}
+
+	/**
+	 * Returns the total rate of pins when each thread repeatedly
+	 * pins and unpins its own share of the resident blocks.
+	 */
+	private static double concurrentHits(final BufferMgr bm, final int numthreads,
+			final int pins, final int resident) throws InterruptedException {
+		final int share = Math.max(1, resident / numthreads);
+		Thread[] threads = new Thread[numthreads];
+		for (int t=0; t<numthreads; t++) {
+			final int first = (t * share) % resident;
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i=0; i<pins; i++)
+						bm.unpin(bm.pin(new Block("bench.tbl", first + i % share)));
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		return (double) pins * numthreads / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private static void pinAll(BufferMgr bm, int start, int count) {
+		for (int i=start; i<start+count; i++)
+			bm.unpin(bm.pin(new Block("bench.tbl", i)));
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+}
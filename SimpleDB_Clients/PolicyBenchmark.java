@@ -0,0 +1,60 @@
+import java.io.File;
+import java.util.Random;
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
+import simpledb.buffer.*;
+
+/**
+ * Compares the hit ratios of the buffer replacement policies.
+ * The workload mixes pins of a small hot set of blocks,
+ * such as catalog pages and index roots, with a sequential scan
+ * of a file that is larger than the pool.
+ * A policy that lets the scan flush the hot set has a low hit ratio.
+ * For each policy, the program creates a fresh database
+ * in the user's home directory and reports the hit ratio
+ * and the pin throughput.
+ * Usage: java PolicyBenchmark [pins] [buffers]
+ */
+public class PolicyBenchmark {
+	private static final String[] POLICIES = {"lru", "clock", "lru-k", "2q"};
+
+	public static void main(String[] args) {
+		int pins     = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+		int poolsize = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		int hotblocks  = poolsize / 4;
+		int scanblocks = poolsize * 4;
+		System.out.println("policy   hit ratio   pins/s");
+		for (String policy : POLICIES) {
+			String dbname = "policybench";
+			deleteDirectory(new File(System.getProperty("user.home"), dbname));
+			SimpleDB.BUFFER_SIZE = poolsize;
+			SimpleDB.BUFFER_POLICY = policy;
+			SimpleDB.initFileLogAndBufferMgr(dbname);
+			BufferMgr bm = SimpleDB.bufferMgr();
+
+			Random rand = new Random(42);
+			int scanpos = 0;
+			long start = System.nanoTime();
+			for (int i=0; i<pins; i++) {
+				Block blk;
+				if (rand.nextBoolean())
+					blk = new Block("hot.tbl", rand.nextInt(hotblocks));
+				else {
+					blk = new Block("scan.tbl", scanpos);
+					scanpos = (scanpos + 1) % scanblocks;
+				}
+				bm.unpin(bm.pin(blk));
+			}
+			double rate = pins / ((System.nanoTime() - start) / 1e9);
+			System.out.println(String.format("%-8s %9.3f %8.0f", policy, bm.hitRatio(), rate));
+		}
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+}
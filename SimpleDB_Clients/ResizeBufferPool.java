@@ -0,0 +1,25 @@
+import java.rmi.Naming;
+import simpledb.remote.RemoteDriver;
+
+/**
+ * Changes the number of buffers in the buffer pool
+ * of a running SimpleDB server.
+ * Shrinking the pool waits for the buffers being removed
+ * to be unpinned, and fails if they are not unpinned in time;
+ * the pool then keeps the buffers that could not be removed.
+ * Usage: java ResizeBufferPool numbuffers [host]
+ */
+public class ResizeBufferPool {
+	public static void main(String[] args) {
+		int numbuffers = Integer.parseInt(args[0]);
+		String host = (args.length > 1) ? args[1] : "localhost";
+		try {
+			RemoteDriver d = (RemoteDriver) Naming.lookup("rmi://" + host + "/simpledb");
+			int size = d.resizeBufferPool(numbuffers);
+			System.out.println("the buffer pool has " + size + " buffers");
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
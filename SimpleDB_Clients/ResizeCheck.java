@@ -0,0 +1,150 @@
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.buffer.*;
+
+/**
+ * Checks that the buffer pool can be shrunk and grown
+ * while some of its buffers are pinned.
+ * The program runs the following scenarios, in order:
+ * <ul>
+ * <li>a shrink while every buffer is pinned, which must wait
+ * until the buffers are modified and then unpinned
+ * by another thread;
+ * <li>a shrink whose buffers stay pinned, which must time out
+ * and leave the pinned buffers in the pool;
+ * <li>a grow while every buffer is pinned and another thread
+ * waits for a buffer, which must receive one of the new buffers.
+ * </ul>
+ * After each scenario, the pool's size and number of available
+ * buffers must be consistent, and the modified blocks must
+ * still hold their values.
+ * The program exits with a nonzero status if a check fails.
+ * Usage: java ResizeCheck
+ */
+public class ResizeCheck {
+	private static final String FILE = "resizecheck.tbl";
+	private static final int BLOCKS = 40;
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		SimpleDB.BUFFER_SIZE = 16;
+		SimpleDB.BUFFER_SHARDS = 2;
+		SimpleDB.BUFFER_TIMEOUT = 1000;
+		SimpleDB.READ_AHEAD_BLOCKS = 0;
+		SimpleDB.CLEANER_RATE = 0;
+		SimpleDB.initFileLogAndBufferMgr("resizecheck");
+		final BufferMgr bm = SimpleDB.bufferMgr();
+		Page zeros = new Page();
+		while (SimpleDB.fileMgr().size(FILE) < BLOCKS)
+			zeros.append(FILE);
+
+		// shrink from 16 to 8 while every buffer is pinned;
+		// they are modified and unpinned while the shrink waits
+		final Buffer[] pinned = pin(bm, 0, 16);
+		Thread unpinner = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+				}
+				catch(InterruptedException e) {}
+				for (int i=0; i<pinned.length; i++)
+					set(pinned[i], 100 + i);
+				unpinAll(bm, pinned);
+			}
+		};
+		long start = System.currentTimeMillis();
+		unpinner.start();
+		int size = bm.resize(8);
+		long elapsed = System.currentTimeMillis() - start;
+		unpinner.join();
+		check("shrink waits for pinned buffers", size == 8 && bm.size() == 8 && elapsed >= 200);
+		check("all buffers available after shrink", bm.available() == 8);
+		check("modified blocks survive the shrink", values(bm, 0, 16, 100));
+
+		// shrink from 8 to 4 while every buffer stays pinned
+		Buffer[] all = pin(bm, 10, 8);
+		boolean aborted = false;
+		try {
+			bm.resize(4);
+		}
+		catch(BufferAbortException e) {
+			aborted = true;
+		}
+		check("shrink of pinned buffers times out", aborted);
+		check("pinned buffers stay in the pool", bm.size() == 8 && bm.available() == 0);
+		unpinAll(bm, all);
+		check("all buffers available after the timeout", bm.available() == bm.size());
+
+		// grow from 8 to 12 while every buffer is pinned
+		// and another thread waits for a buffer
+		all = pin(bm, 20, 8);
+		final Buffer[] waited = new Buffer[1];
+		Thread waiter = new Thread() {
+			public void run() {
+				try {
+					waited[0] = bm.pin(new Block(FILE, 30));
+				}
+				catch(BufferAbortException e) {}
+			}
+		};
+		waiter.start();
+		Thread.sleep(200);
+		size = bm.resize(12);
+		waiter.join();
+		check("grow hands a new buffer to the waiting pin", size == 12 && waited[0] != null);
+		check("new buffers available after grow", bm.available() == 12 - 9);
+		if (waited[0] != null)
+			bm.unpin(waited[0]);
+		unpinAll(bm, all);
+		check("all buffers available at the end", bm.available() == bm.size() && bm.size() == 12);
+		check("modified blocks survive the resizes", values(bm, 0, 16, 100));
+
+		System.out.println((failures == 0) ? "all checks passed" : failures + " checks failed");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	private static Buffer[] pin(BufferMgr bm, int start, int n) {
+		Buffer[] buffs = new Buffer[n];
+		for (int i=0; i<n; i++)
+			buffs[i] = bm.pin(new Block(FILE, start + i));
+		return buffs;
+	}
+
+	private static void unpinAll(BufferMgr bm, Buffer[] buffs) {
+		for (Buffer buff : buffs)
+			bm.unpin(buff);
+	}
+
+	private static void set(Buffer buff, int val) {
+		buff.xLatch();
+		try {
+			buff.setInt(0, val, 1, -1);
+		}
+		finally {
+			buff.xUnlatch();
+		}
+	}
+
+	/**
+	 * Returns true if blocks start to start+n-1 hold the values
+	 * firstval to firstval+n-1.
+	 */
+	private static boolean values(BufferMgr bm, int start, int n, int firstval) {
+		boolean ok = true;
+		for (int i=0; i<n; i++) {
+			Buffer buff = bm.pin(new Block(FILE, start + i));
+			buff.sLatch();
+			ok = ok && buff.getInt(0) == firstval + i;
+			buff.sUnlatch();
+			bm.unpin(buff);
+		}
+		return ok;
+	}
+
+	private static void check(String what, boolean ok) {
+		System.out.println((ok ? "ok: " : "FAILED: ") + what);
+		if (!ok)
+			failures++;
+	}
+}